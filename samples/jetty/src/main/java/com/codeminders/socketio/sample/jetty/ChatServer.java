@@ -66,7 +66,7 @@ public class ChatServer {
 
         context.setWelcomeFiles(new String[]{"chat.html"});
         server.setHandler(context);
-        context.addServlet(ChatSocketServlet.class, "/socket.io/*");
+        context.addServlet(ChatSocketServlet.class, "/socket.io/*").setAsyncSupported(true);
         context.addServlet(DefaultServlet.class, "/*");
 
         WebSocketServerContainerInitializer.
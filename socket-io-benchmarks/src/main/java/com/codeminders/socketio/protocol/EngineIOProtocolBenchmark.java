@@ -0,0 +1,129 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine.IO payload codec benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineIOProtocolBenchmark
+{
+    @Param({"16", "1024", "65536"})
+    int payloadSize;
+
+    @Param({"/", "/chat"})
+    String namespace;
+
+    @Param({"0", "1", "4"})
+    int attachments;
+
+    private List<EngineIOPacket>  packets;
+    private String                textPayload;
+    private byte[]                binaryPayload;
+    private ByteArrayOutputStream os;
+
+    private final EngineIOBinaryPayloadEncoder payload = new EngineIOBinaryPayloadEncoder();
+
+    @Setup
+    public void setup() throws IOException
+    {
+        SocketIOPacket packet = SocketIOProtocol.createEventPacket(1, namespace, Payloads.EVENT_NAME,
+                Payloads.args(payloadSize, attachments));
+
+        packets = new ArrayList<>();
+        packets.add(EngineIOProtocol.createMessagePacket(packet.encode()));
+        if (packet instanceof BinaryPacket)
+        {
+            for (int i = 0; i < attachments; i++)
+                packets.add(EngineIOProtocol.createMessagePacket(new byte[Payloads.ATTACHMENT_SIZE]));
+        }
+
+        // text payloads cannot carry binary packets, using PING packets as the rest of the batch
+        StringBuilder sb = new StringBuilder();
+        appendText(sb, EngineIOProtocol.encode(packets.get(0)));
+        for (int i = 0; i < attachments; i++)
+            appendText(sb, EngineIOProtocol.encode(EngineIOProtocol.createPingPacket("probe")));
+        textPayload = sb.toString();
+
+        os = new ByteArrayOutputStream();
+        encodeAll();
+        binaryPayload = os.toByteArray();
+    }
+
+    private static void appendText(StringBuilder sb, String packet)
+    {
+        sb.append(packet.length()).append(':').append(packet);
+    }
+
+    private void encodeAll() throws IOException
+    {
+        os.reset();
+        for (EngineIOPacket p : packets)
+            EngineIOProtocol.binaryEncode(p, os);
+    }
+
+    @Benchmark
+    public List<EngineIOPacket> decodePayload() throws SocketIOProtocolException
+    {
+        return EngineIOProtocol.decodePayload(textPayload);
+    }
+
+    @Benchmark
+    public List<EngineIOPacket> binaryDecodePayload() throws IOException
+    {
+        return EngineIOProtocol.binaryDecodePayload(new ByteArrayInputStream(binaryPayload));
+    }
+
+    @Benchmark
+    public int binaryEncode() throws IOException
+    {
+        encodeAll();
+        return os.size();
+    }
+
+    @Benchmark
+    public int binaryEncodePayload() throws IOException
+    {
+        payload.reset();
+        for (EngineIOPacket p : packets)
+            payload.add(p);
+        os.reset();
+        payload.writeTo(os);
+        return os.size();
+    }
+}
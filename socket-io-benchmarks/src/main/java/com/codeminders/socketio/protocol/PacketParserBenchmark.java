@@ -0,0 +1,91 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares packet parsers on the same event, the whole way from/to Engine.IO messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketParserBenchmark
+{
+    @Param({JSONPacketParser.NAME, MsgPackPacketParser.NAME})
+    String parser;
+
+    @Param({"16", "1024", "65536"})
+    int payloadSize;
+
+    @Param({"0", "1", "4"})
+    int attachments;
+
+    private PacketParser         packetParser;
+    private SocketIOPacket       packet;
+    private List<EngineIOPacket> encoded;
+
+    @Setup
+    public void setup() throws SocketIOProtocolException
+    {
+        packetParser = JSONPacketParser.NAME.equals(parser) ? new JSONPacketParser() : new MsgPackPacketParser();
+        packet = SocketIOProtocol.createEventPacket(1, "/", Payloads.EVENT_NAME,
+                Payloads.args(payloadSize, attachments));
+
+        // received binary messages are buffer-backed, same as transports create them
+        encoded = new ArrayList<>();
+        for (EngineIOPacket message : packetParser.encode(packet))
+        {
+            if (message.getTextData() == null)
+                message = EngineIOProtocol.createMessagePacket(message.getBinaryBuffer());
+            encoded.add(message);
+        }
+    }
+
+    @Benchmark
+    public List<EngineIOPacket> encode() throws SocketIOProtocolException
+    {
+        return packetParser.encode(packet);
+    }
+
+    @Benchmark
+    public SocketIOPacket decode() throws SocketIOProtocolException
+    {
+        PacketDecoder decoder = packetParser.createDecoder();
+        SocketIOPacket decoded = null;
+        for (EngineIOPacket message : encoded)
+            decoded = decoder.decode(message);
+
+        // arguments are decoded lazily by the JSON parser
+        ((EventPacket) decoded).getArgs();
+        return decoded;
+    }
+}
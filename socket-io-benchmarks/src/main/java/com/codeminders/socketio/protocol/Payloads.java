@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Test payloads shared by the benchmarks.
+ */
+public final class Payloads
+{
+    public static final String EVENT_NAME      = "message";
+    public static final int    ATTACHMENT_SIZE = 1024;
+
+    private Payloads()
+    {
+    }
+
+    /**
+     * Creates event arguments similar to a chat message.
+     *
+     * @param payloadSize number of characters in the message text
+     * @param attachments number of binary attachments
+     * @return event arguments
+     */
+    public static Object[] args(int payloadSize, int attachments)
+    {
+        char[] text = new char[payloadSize];
+        Arrays.fill(text, 'x');
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("user", "benchmark");
+        message.put("time", 1500000000000L);
+        message.put("text", new String(text));
+        message.put("tags", new Object[]{"a", "b", 42, true});
+
+        Object[] args = new Object[attachments + 1];
+        args[0] = message;
+        for (int i = 0; i < attachments; i++)
+        {
+            Map<String, Object> file = new LinkedHashMap<>();
+            file.put("name", "file" + i);
+            file.put("data", new byte[ATTACHMENT_SIZE]);
+            args[i + 1] = file;
+        }
+
+        return args;
+    }
+}
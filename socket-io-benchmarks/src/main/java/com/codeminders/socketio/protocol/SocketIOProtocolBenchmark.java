@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket.IO packet codec benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SocketIOProtocolBenchmark
+{
+    @Param({"16", "1024", "65536"})
+    int payloadSize;
+
+    @Param({"/", "/chat"})
+    String namespace;
+
+    @Param({"0", "1", "4"})
+    int attachments;
+
+    private Object[]       args;
+    private SocketIOPacket packet;
+    private String         encoded;
+    private byte[][]       binaries;
+
+    @Setup
+    public void setup() throws SocketIOProtocolException
+    {
+        args = Payloads.args(payloadSize, attachments);
+        packet = SocketIOProtocol.createEventPacket(1, namespace, Payloads.EVENT_NAME, args);
+        encoded = packet.encode();
+
+        binaries = new byte[attachments][];
+        for (int i = 0; i < attachments; i++)
+            binaries[i] = new byte[Payloads.ATTACHMENT_SIZE];
+    }
+
+    @Benchmark
+    public SocketIOPacket decode() throws SocketIOProtocolException
+    {
+        return SocketIOProtocol.decode(encoded);
+    }
+
+    @Benchmark
+    public String encode() throws SocketIOProtocolException
+    {
+        return packet.encode();
+    }
+
+    @Benchmark
+    public Object extractBinaryObjects()
+    {
+        List<InputStream> extracted = new ArrayList<>(attachments);
+        return SocketIOProtocol.extractBinaryObjects(args, extracted);
+    }
+
+    /**
+     * Decodes the packet and inserts all its attachments the same way the packet decoder does
+     * when binary objects arrive.
+     */
+    @Benchmark
+    public Object decodeAndInsertBinaryObjects() throws SocketIOProtocolException
+    {
+        SocketIOPacket decoded = SocketIOProtocol.decode(encoded);
+        if (decoded instanceof BinaryPacket)
+        {
+            BinaryPacket binaryPacket = (BinaryPacket) decoded;
+            for (byte[] data : binaries)
+            {
+                binaryPacket.addAttachment(new ByteArrayInputStream(data));
+            }
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+import com.codeminders.socketio.protocol.EngineIOPacket;
+import com.codeminders.socketio.protocol.EngineIOProtocol;
+import com.codeminders.socketio.server.transport.AbstractTransportConnection;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.ByteBuffer;
+
+/**
+ * Connection which does the same encoding work as real transports but only counts the bytes
+ * instead of writing them anywhere.
+ */
+class CountingTransportConnection extends AbstractTransportConnection
+{
+    long bytes;
+
+    CountingTransportConnection()
+    {
+        super(null);
+    }
+
+    @Override
+    public void handle(HttpServletRequest request, HttpServletResponse response)
+    {
+    }
+
+    @Override
+    public void abort()
+    {
+    }
+
+    @Override
+    public void send(EngineIOPacket packet) throws SocketIOException
+    {
+        ByteBuffer buffer = packet.getBinaryBuffer();
+        if (buffer != null)
+            bytes += buffer.remaining();
+        else if (packet.getTextData() != null)
+            bytes += EngineIOProtocol.encode(packet).length();
+    }
+
+    @Override
+    public void send(BroadcastFrame frame) throws SocketIOException
+    {
+        if (frame.getText() != null)
+            bytes += frame.getText().length();
+        else
+            send(frame.getPacket());
+        for (ByteBuffer attachment : frame.getAttachments())
+            bytes += attachment.remaining();
+    }
+}
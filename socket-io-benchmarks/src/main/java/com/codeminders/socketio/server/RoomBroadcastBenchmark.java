@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.Payloads;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room fan-out benchmarks over connections which do not do any IO.
+ * {@code emitPerSocket} is the baseline of emitting the event to every member one by one,
+ * {@code parallelBroadcast} writes the broadcast on a pool with a thread per processor and waits until it is done.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomBroadcastBenchmark
+{
+    @Param({"10", "1000"})
+    int members;
+
+    @Param({"16", "1024"})
+    int payloadSize;
+
+    @Param({"/", "/chat"})
+    String namespace;
+
+    @Param({"0", "1"})
+    int attachments;
+
+    private Room         room;
+    private List<Socket> sockets;
+    private Object[]     args;
+
+    private ExecutorService pool;
+    private FanOut          fanOut;
+
+    @Setup
+    public void setup() throws SocketIOException
+    {
+        SocketIOManager manager = SocketIOManager.getInstance();
+        if (manager.getNamespace(SocketIOProtocol.DEFAULT_NAMESPACE) == null)
+            manager.createNamespace(SocketIOProtocol.DEFAULT_NAMESPACE);
+
+        Namespace ns = manager.getNamespace(namespace);
+        if (ns == null)
+            ns = manager.createNamespace(namespace);
+
+        final List<Socket> connected = new ArrayList<>();
+        manager.getNamespace(SocketIOProtocol.DEFAULT_NAMESPACE).on(new ConnectionListener()
+        {
+            @Override
+            public void onConnect(Socket socket)
+            {
+                connected.add(socket);
+            }
+        });
+
+        room = ns.room("benchmark");
+        sockets = new ArrayList<>(members);
+        for (int i = 0; i < members; i++)
+        {
+            Session session = manager.createSession();
+            TransportConnection connection = new CountingTransportConnection();
+            connection.setSession(session);
+            session.onConnect(connection);
+
+            Socket socket = SocketIOProtocol.DEFAULT_NAMESPACE.equals(namespace) ?
+                    connected.get(connected.size() - 1) : session.createSocket(namespace);
+            socket.join(room.getId());
+            sockets.add(socket);
+        }
+
+        args = Payloads.args(payloadSize, attachments);
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(processors);
+        fanOut = new FanOut(pool, processors * 4, 1);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        for (Socket socket : sockets)
+            socket.leaveAll();
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void broadcast() throws SocketIOException
+    {
+        room.broadcast(null, Payloads.EVENT_NAME, args);
+    }
+
+    @Benchmark
+    public void emitPerSocket() throws SocketIOException
+    {
+        for (Socket socket : sockets)
+            socket.emit(Payloads.EVENT_NAME, args);
+    }
+
+    @Benchmark
+    public void parallelBroadcast() throws SocketIOException, InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        Namespace ns = SocketIOManager.getInstance().getNamespace(namespace);
+        fanOut.submit(ns.members(room.getId()), null,
+                ns.encode(SocketIOProtocol.createEventPacket(-1, namespace, Payloads.EVENT_NAME, args)),
+                new BroadcastListener()
+                {
+                    @Override
+                    public void onComplete(int delivered, int dropped, int failed)
+                    {
+                        done.countDown();
+                    }
+                }, null);
+        done.await();
+    }
+}
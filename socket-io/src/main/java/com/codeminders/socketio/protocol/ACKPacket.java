@@ -43,6 +43,12 @@ public abstract class ACKPacket extends SocketIOPacket
         return SocketIOProtocol.toJSON(args);
     }
 
+    @Override
+    public Object getData()
+    {
+        return args;
+    }
+
     public Object[] getArgs()
     {
         return args;
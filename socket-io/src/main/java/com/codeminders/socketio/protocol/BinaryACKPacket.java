@@ -22,6 +22,8 @@
  */
 package com.codeminders.socketio.protocol;
 
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,6 +37,7 @@ public class BinaryACKPacket extends ACKPacket implements BinaryPacket
 {
     private List<InputStream> attachments;
     private int               number_attachments_expected;
+    private PlaceholderIndex  placeholders; // null for outgoing packets
 
     public BinaryACKPacket(int id, String ns, Object[] args)
     {
@@ -45,10 +48,17 @@ public class BinaryACKPacket extends ACKPacket implements BinaryPacket
         setArgs((Object[])SocketIOProtocol.extractBinaryObjects(args, attachments));
     }
 
+    /**
+     * @throws SocketIOProtocolException if the arguments do not have a placeholder for every attachment
+     */
     public BinaryACKPacket(int id, String ns, Object[] args, int number_attachments_expected)
+            throws SocketIOProtocolException
     {
         super(Type.BINARY_ACK, id, ns, args);
 
+        // placeholders are checked first, the declared number is not trusted before that
+        if (number_attachments_expected > 0)
+            this.placeholders = new PlaceholderIndex(args, number_attachments_expected);
         this.number_attachments_expected = number_attachments_expected;
         this.attachments = new ArrayList<>(number_attachments_expected);
     }
@@ -76,9 +86,14 @@ public class BinaryACKPacket extends ACKPacket implements BinaryPacket
      * This method to be called when new attachement arrives to the socket
      *
      * @param attachment new attachment
+     * @throws SocketIOProtocolException if there is no placeholder for the attachment
      */
     public void addAttachment(InputStream attachment)
+            throws SocketIOProtocolException
     {
+        if (placeholders != null)
+            placeholders.insert(attachments.size(), attachment);
+
         attachments.add(attachment);
         number_attachments_expected -= 1;
     }
@@ -22,6 +22,8 @@
  */
 package com.codeminders.socketio.protocol;
 
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -37,6 +39,7 @@ public class BinaryEventPacket extends EventPacket implements BinaryPacket
 {
     private List<InputStream> attachments;
     private int               number_attachments_expected;
+    private PlaceholderIndex  placeholders; // null for outgoing packets
 
     /**
      * This constructor suppose to be called by parser when new packet arrived
@@ -45,11 +48,16 @@ public class BinaryEventPacket extends EventPacket implements BinaryPacket
      * @param name event name
      * @param args event arguments as array of POJOs to be converted to JSON.
      * @param number_attachments_expected number of binary attachment expected to be attached to this packed
+     * @throws SocketIOProtocolException if the arguments do not have a placeholder for every attachment
      */
     BinaryEventPacket(int id, String ns, String name, Object[] args, int number_attachments_expected)
+            throws SocketIOProtocolException
     {
         super(Type.BINARY_EVENT, id, ns, name, args);
 
+        // placeholders are checked first, the declared number is not trusted before that
+        if (number_attachments_expected > 0)
+            this.placeholders = new PlaceholderIndex(args, number_attachments_expected);
         this.number_attachments_expected = number_attachments_expected;
         this.attachments = new ArrayList<>(number_attachments_expected);
     }
@@ -61,7 +69,8 @@ public class BinaryEventPacket extends EventPacket implements BinaryPacket
      * @param ns packet namespace
      * @param name event name
      * @param args event arguments as array of POJOs to be converted to JSON.
-     *             {@link java.io.InputStream} to be used for binary objects
+     *             {@link java.io.InputStream}, {@code byte[]} or {@link java.nio.ByteBuffer}
+     *             to be used for binary objects
      */
     public BinaryEventPacket(int id, String ns, String name, Object[] args)
     {
@@ -97,9 +106,14 @@ public class BinaryEventPacket extends EventPacket implements BinaryPacket
      * This method to be called when new attachement arrives to the socket
      *
      * @param attachment new attachment
+     * @throws SocketIOProtocolException if there is no placeholder for the attachment
      */
     public void addAttachment(InputStream attachment)
+            throws SocketIOProtocolException
     {
+        if (placeholders != null)
+            placeholders.insert(attachments.size(), attachment);
+
         attachments.add(attachment);
         number_attachments_expected -= 1;
     }
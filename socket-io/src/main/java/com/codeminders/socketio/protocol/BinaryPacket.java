@@ -22,6 +22,8 @@
  */
 package com.codeminders.socketio.protocol;
 
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
 import java.io.InputStream;
 import java.util.Collection;
 
@@ -38,11 +40,13 @@ public interface BinaryPacket
     boolean isComplete();
 
     /**
-     * This method to be called when new attachement arrives to the socket
+     * This method to be called when new attachement arrives to the socket.
+     * The attachment replaces its placeholder in the packet arguments.
      *
      * @param attachment new attachment
+     * @throws SocketIOProtocolException if there is no placeholder for the attachment
      */
-    void addAttachment(InputStream attachment);
+    void addAttachment(InputStream attachment) throws SocketIOProtocolException;
 
     SocketIOPacket.Type getType();
 
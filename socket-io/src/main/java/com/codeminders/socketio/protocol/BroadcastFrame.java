@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pre-encoded immutable Socket.IO packet.
+ * <p>
+ * The frame is encoded once and then written as-is to any number of connections,
+ * so broadcasting to N sockets costs one serialization instead of N.
+ */
+public final class BroadcastFrame
+{
+    private final EngineIOPacket   packet;
+    private final String           text;
+    private final List<ByteBuffer> attachments;
+
+    BroadcastFrame(EngineIOPacket packet, List<ByteBuffer> attachments)
+    {
+        this.packet = packet;
+        this.text = packet.getTextData() == null ? null : EngineIOProtocol.encode(packet);
+        this.attachments = Collections.unmodifiableList(attachments);
+    }
+
+    /**
+     * @return EIO MESSAGE packet carrying encoded Socket.IO packet
+     */
+    public EngineIOPacket getPacket()
+    {
+        return packet;
+    }
+
+    /**
+     * @return EIO text encoding of {@link #getPacket()}, ready to be sent as a text frame,
+     *         null if the packet is binary
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Binary attachments. The buffers are shared by all the recipients, so use
+     * {@link ByteBuffer#duplicate()} or {@link EngineIOPacket} to read them.
+     *
+     * @return list of binary attachments
+     */
+    public List<ByteBuffer> getAttachments()
+    {
+        return attachments;
+    }
+}
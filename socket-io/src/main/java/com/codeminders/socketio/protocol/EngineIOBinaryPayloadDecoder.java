@@ -0,0 +1,163 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Incremental decoder of Engine.IO binary payload
+ * {@code <0 for string data, 1 for binary data><length as digits><0xFF><type><data>...}.
+ * <p>
+ * The payload could be pushed in chunks of any size with {@link #feed(byte[], int, int)},
+ * complete packets are taken with {@link #poll()} as soon as they are decoded.
+ * This class is not thread-safe.
+ */
+public final class EngineIOBinaryPayloadDecoder
+{
+    private enum State { FORMAT, LENGTH, TYPE, DATA }
+
+    private static final int INITIAL_DATA_SIZE = 8192;
+
+    private final Deque<EngineIOPacket> packets = new ArrayDeque<>();
+
+    private State               state = State.FORMAT;
+    private int                 format;
+    private int                 length;
+    private int                 digits;
+    private EngineIOPacket.Type type;
+    private byte[]              data;
+    private int                 size; // bytes of packet data received
+
+    /**
+     * @return next decoded packet or null if no packet is complete yet
+     */
+    public EngineIOPacket poll()
+    {
+        return packets.poll();
+    }
+
+    /**
+     * Decodes next chunk of the payload.
+     *
+     * @param bytes chunk of the payload
+     * @param off   offset of the chunk
+     * @param len   length of the chunk
+     * @throws SocketIOProtocolException if the payload is invalid
+     */
+    public void feed(byte[] bytes, int off, int len) throws SocketIOProtocolException
+    {
+        int end = off + len;
+        while (off < end)
+        {
+            int b = bytes[off] & 0xff;
+            switch (state)
+            {
+                case FORMAT:
+                    off++;
+                    if (b != EngineIOProtocol.BINARY_FORMAT && b != EngineIOProtocol.TEXT_FORMAT)
+                        throw new SocketIOProtocolException("Unknown packet format (should be 0 or 1) :" + b);
+                    format = b;
+                    state = State.LENGTH;
+                    break;
+
+                case LENGTH:
+                    off++;
+                    if (b > 9)
+                    {
+                        // end of encoded length
+                        if (length == 0)
+                            throw new SocketIOProtocolException(format == EngineIOProtocol.BINARY_FORMAT ?
+                                    "Empty binary attachment" : "No packet length defined");
+                        state = State.TYPE;
+                        break;
+                    }
+                    length = length * 10 + b;
+                    if (++digits > 9)
+                        throw new SocketIOProtocolException("Packet length is out of range");
+                    break;
+
+                case TYPE:
+                    off++;
+                    if (format == EngineIOProtocol.TEXT_FORMAT)
+                    {
+                        if (b < '0' || b > '9')
+                            throw new SocketIOProtocolException("Unexpected EIO packet type: " + b);
+                        b -= '0';
+                    }
+                    type = EngineIOPacket.Type.fromInt(b);
+                    // length is not trusted for the allocation, the buffer grows as data arrives
+                    data = new byte[Math.min(length - 1, INITIAL_DATA_SIZE)];
+                    size = 0;
+                    state = State.DATA;
+                    if (length == 1)
+                        complete();
+                    break;
+
+                case DATA:
+                    int n = Math.min(length - 1 - size, end - off);
+                    if (size + n > data.length)
+                        data = Arrays.copyOf(data, Math.min(length - 1, Math.max(size + n, data.length * 2)));
+                    System.arraycopy(bytes, off, data, size, n);
+                    size += n;
+                    off += n;
+                    if (size == length - 1)
+                        complete();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the payload.
+     *
+     * @throws SocketIOProtocolException if the last packet is incomplete
+     */
+    public void finish() throws SocketIOProtocolException
+    {
+        if (state != State.FORMAT)
+            throw new SocketIOProtocolException("Unexpected end of payload");
+    }
+
+    private void complete() throws SocketIOProtocolException
+    {
+        byte[] bytes = data;
+        data = null;
+        state = State.FORMAT;
+        length = 0;
+        digits = 0;
+
+        if (format == EngineIOProtocol.TEXT_FORMAT)
+            packets.add(EngineIOProtocol.createPacket(type, new String(bytes, StandardCharsets.UTF_8)));
+        else if (type == EngineIOPacket.Type.MESSAGE)
+            packets.add(EngineIOProtocol.createMessagePacket(bytes));
+        else if (type == EngineIOPacket.Type.PING)
+            throw new SocketIOProtocolException("No implementation for binary PING");
+        else
+            packets.add(EngineIOProtocol.createPacket(type, null));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes Engine.IO packets into one binary payload buffer, so the payload could be sent
+ * with known length in a single write. The buffer is reused after {@link #reset()}.
+ * This class is not thread-safe.
+ */
+public final class EngineIOBinaryPayloadEncoder
+{
+    private static final int INITIAL_SIZE      = 1024;
+    private static final int MAX_RETAINED_SIZE = 256 * 1024;
+    private static final int MAX_HEADER_SIZE   = 13; // format, up to 10 length digits, 0xFF, type
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int    size;
+
+    /**
+     * Appends the packet to the payload.
+     *
+     * @param packet packet to add
+     * @throws IOException if binary content of the packet cannot be read
+     */
+    public void add(EngineIOPacket packet) throws IOException
+    {
+        ByteBuffer data = packet.getBinaryBuffer();
+        if (data != null)
+        {
+            writeHeader(EngineIOProtocol.BINARY_FORMAT, data.remaining() + 1, packet.getType().value());
+            ensure(data.remaining());
+            data.duplicate().get(buffer, size, data.remaining());
+            size += data.remaining();
+        }
+        else if (packet.getBinaryData() != null)
+        {
+            addStream(packet.getType(), packet.getBinaryData());
+        }
+        else
+        {
+            String text = packet.getTextData();
+            assert (text != null);
+
+            // String.getBytes() is intrinsified by the JVM and beats any hand-written encoding loop.
+            // Engine.IO counts the length of text packets in UTF-8 bytes
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeHeader(EngineIOProtocol.TEXT_FORMAT, bytes.length + 1, packet.getType().value() + '0');
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+
+    /**
+     * @return payload size in bytes
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void writeTo(OutputStream os) throws IOException
+    {
+        os.write(buffer, 0, size);
+    }
+
+    /**
+     * Clears the payload. Buffer grown by a large payload is released.
+     */
+    public void reset()
+    {
+        size = 0;
+        if (buffer.length > MAX_RETAINED_SIZE)
+            buffer = new byte[INITIAL_SIZE];
+    }
+
+    private void addStream(EngineIOPacket.Type type, InputStream is) throws IOException
+    {
+        // length goes before the data, so the content is read past the longest header and moved back after
+        int start = size;
+        int offset = start + MAX_HEADER_SIZE;
+        int len = 0;
+        while (true)
+        {
+            ensureCapacity(offset + len + INITIAL_SIZE);
+            int n = ByteStreams.read(is, buffer, offset + len, buffer.length - offset - len);
+            len += n;
+            if (offset + len < buffer.length)
+                break; // end of stream
+        }
+
+        writeHeader(EngineIOProtocol.BINARY_FORMAT, len + 1, type.value());
+        System.arraycopy(buffer, offset, buffer, size, len);
+        size += len;
+    }
+
+    private void writeHeader(int format, int length, int type)
+    {
+        ensure(MAX_HEADER_SIZE);
+        byte[] b = buffer;
+        int p = size;
+        b[p++] = (byte) format;
+
+        int divisor = 1;
+        while (divisor <= length / 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            b[p++] = (byte) (length / divisor % 10);
+
+        b[p++] = (byte) 0xff;
+        b[p++] = (byte) type;
+        size = p;
+    }
+
+    private void ensure(int extra)
+    {
+        ensureCapacity(size + extra);
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+}
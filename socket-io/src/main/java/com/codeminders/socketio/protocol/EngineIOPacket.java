@@ -23,6 +23,7 @@
 package com.codeminders.socketio.protocol;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author Alexander Sova (bird@codeminders.com)
@@ -72,6 +73,7 @@ public class EngineIOPacket
     private Type        type;
     private String      textData;
     private InputStream binaryData;
+    private ByteBuffer  binaryBuffer;
 
     public Type getType()
     {
@@ -83,22 +85,62 @@ public class EngineIOPacket
         return textData;
     }
 
+    /**
+     * @return binary data as a stream, null for text packets
+     */
     public InputStream getBinaryData()
     {
+        if (binaryBuffer != null)
+            return new ByteBufferInputStream(binaryBuffer);
+
         return binaryData;
     }
 
+    /**
+     * Returns binary data for packets with content of known length.
+     * Every call returns new view of the data, so the packet could be sent more than once.
+     *
+     * @return binary data or null if the packet is a text packet or its content is a stream
+     */
+    public ByteBuffer getBinaryBuffer()
+    {
+        if (binaryBuffer == null)
+            return null;
+
+        return binaryBuffer.duplicate();
+    }
+
     public EngineIOPacket(Type type, String data)
     {
         this.type = type;
         this.textData = data;
     }
 
-    //TODO: support byte[] in addtion to InputStream
     public EngineIOPacket(Type type, InputStream binaryData)
     {
         this.type = type;
-        this.binaryData = binaryData;
+        if (binaryData instanceof ByteBufferInputStream)
+            this.binaryBuffer = ((ByteBufferInputStream) binaryData).getBuffer();
+        else
+            this.binaryData = binaryData;
+    }
+
+    /**
+     * Creates binary packet. The buffer is not copied, its remaining content must not be modified
+     * until the packet is sent. Read-only and direct buffers are supported.
+     *
+     * @param type packet type
+     * @param binaryData packet content
+     */
+    public EngineIOPacket(Type type, ByteBuffer binaryData)
+    {
+        this.type = type;
+        this.binaryBuffer = binaryData.duplicate();
+    }
+
+    public EngineIOPacket(Type type, byte[] binaryData)
+    {
+        this(type, ByteBuffer.wrap(binaryData));
     }
 
     public EngineIOPacket(Type type)
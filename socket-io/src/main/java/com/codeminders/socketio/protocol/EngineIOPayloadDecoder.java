@@ -0,0 +1,201 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Incremental decoder of Engine.IO text payload {@code <length>:<type><data>...}.
+ * <p>
+ * The payload could be pushed in chunks of any size with {@link #feed(char[], int, int)},
+ * complete packets are taken with {@link #poll()} as soon as they are decoded.
+ * The decoder could also pull the payload from a {@link Reader} through one reusable
+ * char buffer, see {@link #next()}. This class is not thread-safe.
+ */
+public final class EngineIOPayloadDecoder
+{
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private enum State { LENGTH, TYPE, DATA }
+
+    private final Deque<EngineIOPacket> packets = new ArrayDeque<>();
+
+    private State               state = State.LENGTH;
+    private int                 length;
+    private int                 digits;
+    private EngineIOPacket.Type type;
+    private int                 remaining; // chars of packet data still to come
+    private StringBuilder       data;      // packet data spanning several chunks
+
+    private final Reader reader;
+    private final char[] buffer;
+
+    /**
+     * Creates decoder to be fed with {@link #feed(char[], int, int)}.
+     */
+    public EngineIOPayloadDecoder()
+    {
+        this.reader = null;
+        this.buffer = null;
+    }
+
+    public EngineIOPayloadDecoder(Reader reader)
+    {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public EngineIOPayloadDecoder(Reader reader, int bufferSize)
+    {
+        assert (reader != null);
+
+        this.reader = reader;
+        this.buffer = new char[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Reads next packet from the reader.
+     *
+     * @return next packet or null if there are no more packets in the payload
+     * @throws SocketIOProtocolException if the payload is invalid
+     * @throws IOException if the reader fails
+     */
+    public EngineIOPacket next() throws IOException
+    {
+        assert (reader != null);
+
+        while (packets.isEmpty())
+        {
+            int n = reader.read(buffer, 0, buffer.length);
+            if (n < 0)
+            {
+                finish();
+                return null;
+            }
+            feed(buffer, 0, n);
+        }
+        return packets.poll();
+    }
+
+    /**
+     * @return next decoded packet or null if no packet is complete yet
+     */
+    public EngineIOPacket poll()
+    {
+        return packets.poll();
+    }
+
+    /**
+     * Decodes next chunk of the payload.
+     *
+     * @param chars chunk of the payload
+     * @param off   offset of the chunk
+     * @param len   length of the chunk
+     * @throws SocketIOProtocolException if the payload is invalid
+     */
+    public void feed(char[] chars, int off, int len) throws SocketIOProtocolException
+    {
+        int end = off + len;
+        while (off < end)
+        {
+            switch (state)
+            {
+                case LENGTH:
+                    char c = chars[off++];
+                    if (c == ':')
+                    {
+                        if (length < 1)
+                            throw new SocketIOProtocolException("No packet length defined");
+                        state = State.TYPE;
+                        break;
+                    }
+
+                    if (c < '0' || c > '9')
+                        throw new SocketIOProtocolException("Invalid packet length");
+
+                    length = length * 10 + (c - '0');
+                    if (++digits > 9)
+                        throw new SocketIOProtocolException("Packet length is out of range");
+                    break;
+
+                case TYPE:
+                    char t = chars[off++];
+                    if (t < '0' || t > '9')
+                        throw new SocketIOProtocolException("Unexpected EIO packet type: " + t);
+
+                    type = EngineIOPacket.Type.fromInt(t - '0');
+                    remaining = length - 1;
+                    state = State.DATA;
+                    if (remaining == 0)
+                        complete("");
+                    break;
+
+                case DATA:
+                    int n = Math.min(remaining, end - off);
+                    if (data == null && n == remaining)
+                    {
+                        // whole packet is in the chunk
+                        complete(new String(chars, off, n));
+                    }
+                    else
+                    {
+                        if (data == null)
+                            data = new StringBuilder(Math.min(remaining, DEFAULT_BUFFER_SIZE));
+                        data.append(chars, off, n);
+                        remaining -= n;
+                        if (remaining == 0)
+                        {
+                            String s = data.toString();
+                            data = null;
+                            complete(s);
+                        }
+                    }
+                    off += n;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the payload.
+     *
+     * @throws SocketIOProtocolException if the last packet is incomplete
+     */
+    public void finish() throws SocketIOProtocolException
+    {
+        if (state != State.LENGTH || digits > 0)
+            throw new SocketIOProtocolException("Unexpected end of payload");
+    }
+
+    private void complete(String s) throws SocketIOProtocolException
+    {
+        packets.add(EngineIOProtocol.createPacket(type, s));
+        state = State.LENGTH;
+        length = 0;
+        digits = 0;
+    }
+}
@@ -26,8 +26,7 @@ import com.codeminders.socketio.server.SocketIOProtocolException;
 import com.google.common.io.ByteStreams;
 
 import java.io.*;
-import java.text.DecimalFormat;
-import java.text.ParsePosition;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -46,6 +45,8 @@ public final class EngineIOProtocol
     public static final String BASE64_FLAG = "b64";
     public static final String VERSION     = "EIO";
 
+    private static final int WRITE_CHUNK_SIZE = 8192;
+
     private EngineIOProtocol()
     {
     }
@@ -58,7 +59,14 @@ public final class EngineIOProtocol
     public static void binaryEncode(EngineIOPacket packet, OutputStream os)
             throws IOException
     {
-        if (packet.getBinaryData() != null)
+        ByteBuffer buffer = packet.getBinaryBuffer();
+        if (buffer != null)
+        {
+            // length is known, writing the content right from the buffer
+            writeBinaryHeader(packet, buffer.remaining(), os);
+            write(buffer, os);
+        }
+        else if (packet.getBinaryData() != null)
         {
             ByteArrayInputStream bytes;
             InputStream is = packet.getBinaryData();
@@ -69,30 +77,64 @@ public final class EngineIOProtocol
             else
             {
                 // Cannot avoid double copy. The protocol requires to send the length before the data
-                //TODO: ask user to provide length? Could be useful to send files
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                ByteStreams.copy(is, buffer);
-                bytes = new ByteArrayInputStream(buffer.toByteArray());
+                // Use byte[] or ByteBuffer to send the data of known length without copying
+                ByteArrayOutputStream copy = new ByteArrayOutputStream();
+                ByteStreams.copy(is, copy);
+                bytes = new ByteArrayInputStream(copy.toByteArray());
             }
-            os.write(1); // binary packet
-            os.write(encodeLength(bytes.available() + 1)); // +1 for packet type
-            os.write(255);
-            os.write(packet.getType().value());
+            writeBinaryHeader(packet, bytes.available(), os);
             ByteStreams.copy(bytes, os);
         }
         else
         {
             assert(packet.getTextData() != null);
 
+            byte[] text = packet.getTextData().getBytes("UTF-8");
             os.write(0); // text packet
-            os.write(encodeLength(packet.getTextData().length() + 1)); // +1 for packet type
+            os.write(encodeLength(text.length + 1)); // length in UTF-8 bytes, +1 for packet type
             os.write(255);
             os.write(packet.getType().value() + '0');
-            os.write(packet.getTextData().getBytes("UTF-8"));
+            os.write(text);
         }
 
     }
 
+    private static void writeBinaryHeader(EngineIOPacket packet, int length, OutputStream os)
+            throws IOException
+    {
+        os.write(1); // binary packet
+        os.write(encodeLength(length + 1)); // +1 for packet type
+        os.write(255);
+        os.write(packet.getType().value());
+    }
+
+    /**
+     * Writes remaining content of the buffer to the stream.
+     * Heap buffers are written directly, read-only and direct buffers are written in chunks.
+     *
+     * @param buffer data to write. Buffer position is moved to its limit
+     * @param os     stream to write to
+     * @throws IOException if write fails
+     */
+    public static void write(ByteBuffer buffer, OutputStream os)
+            throws IOException
+    {
+        if (buffer.hasArray())
+        {
+            os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min(buffer.remaining(), WRITE_CHUNK_SIZE)];
+        while (buffer.hasRemaining())
+        {
+            int len = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, len);
+            os.write(chunk, 0, len);
+        }
+    }
+
     //this is most ridiculous encoding I ever seen
     private static byte[] encodeLength(int len)
     {
@@ -194,6 +236,16 @@ public final class EngineIOProtocol
         return new EngineIOPacket(EngineIOPacket.Type.MESSAGE, data);
     }
 
+    public static EngineIOPacket createMessagePacket(ByteBuffer data)
+    {
+        return new EngineIOPacket(EngineIOPacket.Type.MESSAGE, data);
+    }
+
+    public static EngineIOPacket createMessagePacket(byte[] data)
+    {
+        return new EngineIOPacket(EngineIOPacket.Type.MESSAGE, data);
+    }
+
     public static EngineIOPacket createUpgradePacket()
     {
         return new EngineIOPacket(EngineIOPacket.Type.UPGRADE);
@@ -204,144 +256,83 @@ public final class EngineIOProtocol
         return new EngineIOPacket(EngineIOPacket.Type.NOOP);
     }
 
+    /**
+     * Decodes text payload, see {@link EngineIOPayloadDecoder} to decode it while it streams in.
+     *
+     * @param payload encoded payload
+     * @return decoded packets
+     * @throws SocketIOProtocolException if the payload is invalid
+     */
     public static List<EngineIOPacket> decodePayload(String payload)
             throws SocketIOProtocolException
     {
         ArrayList<EngineIOPacket> packets = new ArrayList<>();
 
-        ParsePosition pos = new ParsePosition(0);
-
-        while(pos.getIndex() < payload.length())
+        EngineIOPayloadDecoder decoder = new EngineIOPayloadDecoder(new StringReader(payload),
+                Math.min(payload.length(), EngineIOPayloadDecoder.DEFAULT_BUFFER_SIZE));
+        try
         {
-            int len = decodePacketLength(payload, pos);
-            EngineIOPacket.Type type = decodePacketType(payload, pos);
-            String data = payload.substring(pos.getIndex(), pos.getIndex() + len-1 );
-            pos.setIndex(pos.getIndex() + 1 + len);
-
-            switch (type)
-            {
-                case CLOSE:
-                    packets.add(createClosePacket());
-                    break;
-                case PING:
-                    packets.add(createPingPacket(data));
-                    break;
-                case MESSAGE:
-                    packets.add(createMessagePacket(data));
-                    break;
-                case UPGRADE:
-                    packets.add(createUpgradePacket());
-                    break;
-                case NOOP:
-                    packets.add(createNoopPacket());
-                    break;
-                default:
-                    throw new SocketIOProtocolException("Unexpected EIO packet type: " + type);
-            }
+            for (EngineIOPacket packet = decoder.next(); packet != null; packet = decoder.next())
+                packets.add(packet);
+        }
+        catch (SocketIOProtocolException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            // never happens with StringReader
+            throw new SocketIOProtocolException("Cannot read payload", e);
         }
 
         return packets;
     }
 
-    static int decodePacketLength(String data, ParsePosition pos)
+    static EngineIOPacket createPacket(EngineIOPacket.Type type, String data)
             throws SocketIOProtocolException
     {
-        Number len = new DecimalFormat("#").parse(data, pos);
-        if (len == null)
-            throw new SocketIOProtocolException("No packet length defined");
-
-        pos.setIndex(pos.getIndex() + 1);
-
-        return len.intValue();
-    }
-
-    static EngineIOPacket.Type decodePacketType(String data, ParsePosition pos)
-            throws SocketIOProtocolException
-    {
-        int idx = pos.getIndex();
-        EngineIOPacket.Type type = EngineIOPacket.Type.fromInt(Integer.parseInt(data.substring(idx, idx + 1)));
-        pos.setIndex(idx + 1);
-        return type;
-    }
-
-    static int decodePacketLength(InputStream is)
-            throws IOException
-    {
-        int len = 0;
-
-        while (true)
+        switch (type)
         {
-            int b = is.read();
-            if(b < 0)
-                return -1; // end of stream. time to go
-            if(b > 9)
-                break; // end of encoded length
-            len = len * 10 + b;
+            case CLOSE:
+                return createClosePacket();
+            case PING:
+                return createPingPacket(data);
+            case MESSAGE:
+                return createMessagePacket(data);
+            case UPGRADE:
+                return createUpgradePacket();
+            case NOOP:
+                return createNoopPacket();
+            default:
+                throw new SocketIOProtocolException("Unexpected EIO packet type: " + type);
         }
-
-        return len;
-    }
-
-    static EngineIOPacket.Type decodePacketType(int packetFormat, InputStream is)
-            throws IOException
-    {
-        int i = is.read();
-        if(i < 0)
-            throw new SocketIOProtocolException("Unexpected end of stream");
-        if(packetFormat == TEXT_FORMAT)
-            i = Integer.parseInt(String.valueOf((char)i));
-
-        return EngineIOPacket.Type.fromInt(i);
     }
 
     public final static int TEXT_FORMAT   = 0;
     public final static int BINARY_FORMAT = 1;
+
+    /**
+     * Decodes binary payload, see {@link EngineIOBinaryPayloadDecoder} to decode it while it streams in.
+     *
+     * @param is encoded payload
+     * @return decoded packets
+     * @throws SocketIOProtocolException if the payload is invalid
+     * @throws IOException if the stream fails
+     */
     public static List<EngineIOPacket> binaryDecodePayload(InputStream is) throws IOException
     {
         final ArrayList<EngineIOPacket> packets = new ArrayList<>();
-        while (true)
+        final EngineIOBinaryPayloadDecoder decoder = new EngineIOBinaryPayloadDecoder();
+        final byte[] buffer = new byte[WRITE_CHUNK_SIZE];
+
+        for (int n = is.read(buffer); n != -1; n = is.read(buffer))
         {
-            final int packetFormat = is.read();
-            if(packetFormat == -1)
-                break; // end of payload stream, done
-            if(packetFormat != BINARY_FORMAT && packetFormat != TEXT_FORMAT)
-                throw new SocketIOProtocolException("Unknown packet format (should be 0 or 1) :" + packetFormat);
-            final int len = decodePacketLength(is);
-            if(len < 0) // end of payload stream, done
-                break;
-            if(packetFormat == BINARY_FORMAT && len == 0)
-                throw new SocketIOProtocolException("Empty binary attachment");
-            final EngineIOPacket.Type packetType = decodePacketType(packetFormat,is);
-            byte[] data = new byte[len-1];
-            ByteStreams.readFully(is, data, 0, data.length);
-
-            switch (packetType)
-            {
-                case CLOSE:
-                    packets.add(createClosePacket());
-                    break;
-                case PING:
-                    if(packetFormat == TEXT_FORMAT)
-                        packets.add(createPingPacket(new String(data,"UTF-8")));
-                    else
-                        throw new SocketIOProtocolException("No implementation for binary PING");
-                    break;
-                case MESSAGE:
-                    if(packetFormat == TEXT_FORMAT)
-                        packets.add(createMessagePacket(new String(data,"UTF-8")));
-                    else
-                        packets.add(createMessagePacket(new ByteArrayInputStream(data)));
-                    break;
-                case UPGRADE:
-                    packets.add(createUpgradePacket());
-                    break;
-                case NOOP:
-                    packets.add(createNoopPacket());
-                    break;
-                default:
-                    throw new SocketIOProtocolException("Unexpected EIO packet type: " + packetType);
-            }
+            decoder.feed(buffer, 0, n);
+            for (EngineIOPacket packet = decoder.poll(); packet != null; packet = decoder.poll())
+                packets.add(packet);
         }
+        decoder.finish();
+
         return packets;
     }
 }
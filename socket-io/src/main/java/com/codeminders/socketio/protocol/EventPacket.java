@@ -23,6 +23,7 @@
 package com.codeminders.socketio.protocol;
 
 import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.fasterxml.jackson.databind.JavaType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -57,6 +58,45 @@ public abstract class EventPacket extends SocketIOPacket
         this.args = args;
     }
 
+    /**
+     * Returns event arguments bound to the given types.
+     * Arguments beyond the types array are returned as generic objects.
+     * <p>
+     * Only text events decoded by {@link JSONPacketParser} are bound straight from the JSON tokens.
+     * Other packets hold decoded arguments already: binary events need them to put the attachments
+     * in place and MessagePack has no JSON to read, so their arguments are converted from the decoded objects.
+     *
+     * @param types expected types of the arguments
+     * @return event arguments
+     * @throws SocketIOProtocolException if arguments cannot be bound to the types
+     */
+    public Object[] getArgs(JavaType[] types) throws SocketIOProtocolException
+    {
+        return SocketIOProtocol.convertArgs(getArgs(), types);
+    }
+
+    /**
+     * @return event arguments as JSON array
+     * @throws SocketIOProtocolException if arguments cannot be converted to JSON
+     */
+    public String getArgsJSON() throws SocketIOProtocolException
+    {
+        return SocketIOProtocol.toJSON(getArgs());
+    }
+
+    /**
+     * @return event name followed by the arguments
+     */
+    @Override
+    public Object getData()
+    {
+        Object[] args = getArgs();
+        Object[] data = new Object[args.length + 1];
+        data[0] = getName();
+        System.arraycopy(args, 0, data, 1, args.length);
+        return data;
+    }
+
     @Override
     protected String encodeArgs() throws SocketIOProtocolException
     {
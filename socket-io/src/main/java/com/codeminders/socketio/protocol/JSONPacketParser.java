@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Default parser compatible with socket.io-parser.
+ * <p>
+ * Packets are encoded as text, binary objects are replaced with placeholders and sent
+ * as separate binary messages following the packet.
+ */
+public final class JSONPacketParser implements PacketParser
+{
+    public static final String NAME = "json";
+
+    @Override
+    public List<EngineIOPacket> encode(SocketIOPacket packet) throws SocketIOProtocolException
+    {
+        EngineIOPacket message = EngineIOProtocol.createMessagePacket(packet.encode());
+        if (!(packet instanceof BinaryPacket))
+            return Collections.singletonList(message);
+
+        Collection<InputStream> attachments = ((BinaryPacket) packet).getAttachments();
+        List<EngineIOPacket> messages = new ArrayList<>(attachments.size() + 1);
+        messages.add(message);
+        for (InputStream is : attachments)
+            messages.add(EngineIOProtocol.createMessagePacket(is));
+
+        return messages;
+    }
+
+    @Override
+    public BroadcastFrame encodeFrame(SocketIOPacket packet) throws SocketIOProtocolException
+    {
+        return SocketIOProtocol.createBroadcastFrame(packet);
+    }
+
+    @Override
+    public PacketDecoder createDecoder()
+    {
+        return new Decoder();
+    }
+
+    private static class Decoder implements PacketDecoder
+    {
+        private BinaryPacket binaryPacket; // waiting for attachments
+
+        @Override
+        public SocketIOPacket decode(EngineIOPacket message) throws SocketIOProtocolException
+        {
+            if (message.getTextData() != null)
+            {
+                SocketIOPacket packet = SocketIOProtocol.decode(message.getTextData(), true);
+                if (packet instanceof BinaryPacket && !((BinaryPacket) packet).isComplete())
+                {
+                    binaryPacket = (BinaryPacket) packet;
+                    return null;
+                }
+                return packet;
+            }
+
+            InputStream is = message.getBinaryData();
+            if (is == null)
+                return null;
+
+            if (binaryPacket == null)
+                throw new SocketIOProtocolException("Unexpected binary object");
+
+            binaryPacket.addAttachment(is);
+            if (!binaryPacket.isComplete())
+                return null;
+
+            SocketIOPacket packet = (SocketIOPacket) binaryPacket;
+            binaryPacket = null;
+            return packet;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+
+/**
+ * EVENT packet which keeps its raw JSON and parses the arguments on demand.
+ * As long as the arguments are not read or modified the packet is encoded back as is.
+ * The decoder has already checked that the JSON is valid, only binding it to objects is deferred.
+ */
+class LazyEventPacket extends EventPacket
+{
+    private final String data;
+    private final int    jsonStart; // position of the JSON array in data
+    private final int    argsStart; // position of ',' or ']' following the event name
+    private boolean      decoded;
+
+    LazyEventPacket(int id, String ns, String name, String data, int jsonStart, int argsStart)
+    {
+        super(Type.EVENT, id, ns, name, null);
+        this.data = data;
+        this.jsonStart = jsonStart;
+        this.argsStart = argsStart;
+    }
+
+    /**
+     * @return event arguments, parsed on the first call
+     */
+    @Override
+    public Object[] getArgs()
+    {
+        if (!decoded)
+        {
+            try
+            {
+                super.setArgs(decodeArgs(null));
+            }
+            catch (SocketIOProtocolException e)
+            {
+                throw new IllegalArgumentException("Invalid event arguments: " + data, e);
+            }
+            decoded = true;
+        }
+        return super.getArgs();
+    }
+
+    /**
+     * Binds the arguments straight from the raw JSON, skipping the generic object tree.
+     * The result is not cached, so the packet is still encoded back as is.
+     */
+    @Override
+    public Object[] getArgs(JavaType[] types) throws SocketIOProtocolException
+    {
+        if (decoded)
+            return super.getArgs(types);
+
+        return decodeArgs(types);
+    }
+
+    @Override
+    public void setArgs(Object[] args)
+    {
+        super.setArgs(args);
+        decoded = true;
+    }
+
+    /**
+     * @return raw JSON array of the arguments if they were not modified, no parsing involved
+     */
+    @Override
+    public String getArgsJSON() throws SocketIOProtocolException
+    {
+        if (decoded)
+            return super.getArgsJSON();
+
+        if (data.charAt(argsStart) == ']')
+            return "[]";
+
+        return "[" + data.substring(argsStart + 1);
+    }
+
+    @Override
+    protected String encodeArgs() throws SocketIOProtocolException
+    {
+        if (decoded)
+            return super.encodeArgs();
+
+        return data.substring(jsonStart);
+    }
+
+    private Object[] decodeArgs(JavaType[] types) throws SocketIOProtocolException
+    {
+        try (JsonParser parser = SocketIOProtocol.createParser(data, jsonStart))
+        {
+            parser.nextToken(); // START_ARRAY, checked by the decoder
+            parser.nextToken();
+            parser.skipChildren(); // event name
+            return types == null ? SocketIOProtocol.decodeArray(parser) : SocketIOProtocol.decodeArray(parser, types);
+        }
+        catch (IOException e)
+        {
+            throw new SocketIOProtocolException("Cannot parse JSON", e);
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Minimal MessagePack codec for the object trees carried by Socket.IO packets.
+ * <p>
+ * Values are written the way notepack.io (used by socket.io-msgpack-parser) reads them:
+ * maps, lists and arrays, strings, numbers, booleans, nulls, binary objects and dates.
+ * Any other object is converted with Jackson first, just like it would be for JSON.
+ * Binary objects are read as {@link ByteBufferInputStream} sharing the memory of the message.
+ */
+final class MsgPack
+{
+    private MsgPack()
+    {
+    }
+
+    /**
+     * @param o           object to encode
+     * @param attachments binary objects replaced with placeholders, see
+     *                    {@link SocketIOProtocol#extractBinaryObjects(Object, List)}, null if there are none
+     * @return encoded object
+     * @throws SocketIOProtocolException if a binary object cannot be read
+     */
+    static ByteBuffer encode(Object o, List<InputStream> attachments)
+            throws SocketIOProtocolException
+    {
+        Output out = new Output();
+        try
+        {
+            write(o, attachments, out);
+        }
+        catch (IOException e)
+        {
+            throw new SocketIOProtocolException("Cannot read binary object", e);
+        }
+        return out.toBuffer();
+    }
+
+    /**
+     * @param data encoded object
+     * @return decoded object
+     * @throws SocketIOProtocolException if data is not valid MessagePack
+     */
+    static Object decode(ByteBuffer data)
+            throws SocketIOProtocolException
+    {
+        ByteBuffer in = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try
+        {
+            Object o = read(in);
+            if (in.hasRemaining())
+                throw new SocketIOProtocolException("Unexpected data after MessagePack object");
+            return o;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new SocketIOProtocolException("Unexpected end of MessagePack object", e);
+        }
+    }
+
+    private static void write(Object o, List<InputStream> attachments, Output out)
+            throws IOException
+    {
+        if (o == null)
+            out.write(0xc0);
+        else if (o instanceof Boolean)
+            out.write((Boolean) o ? 0xc3 : 0xc2);
+        else if (o instanceof String || o instanceof Character)
+            writeString(o.toString(), out);
+        else if (o instanceof Float)
+            out.writeFloat((Float) o);
+        else if (o instanceof Double || o instanceof BigDecimal)
+            out.writeDouble(((Number) o).doubleValue());
+        else if (o instanceof BigInteger)
+            writeBigInteger((BigInteger) o, out);
+        else if (o instanceof Number)
+            writeLong(((Number) o).longValue(), out);
+        else if (o instanceof Date)
+            out.writeDate(((Date) o).getTime());
+        else if (o instanceof byte[])
+            writeBinary(ByteBuffer.wrap((byte[]) o), out);
+        else if (o instanceof ByteBuffer)
+            writeBinary(((ByteBuffer) o).duplicate(), out);
+        else if (o instanceof ByteBufferInputStream)
+            writeBinary(((ByteBufferInputStream) o).getBuffer(), out);
+        else if (o instanceof InputStream)
+            writeBinary(ByteBuffer.wrap(ByteStreams.toByteArray((InputStream) o)), out);
+        else if (o instanceof Object[])
+            writeArray(Arrays.asList((Object[]) o), attachments, out);
+        else if (o instanceof Collection)
+            writeArray((Collection<?>) o, attachments, out);
+        else if (o instanceof Map)
+            writeMap((Map<?, ?>) o, attachments, out);
+        else
+            write(SocketIOProtocol.toPlainObject(o), attachments, out);
+    }
+
+    private static void writeArray(Collection<?> c, List<InputStream> attachments, Output out)
+            throws IOException
+    {
+        out.writeHeader(c.size(), 0x90, 16, 0xdc, 0xdd);
+        for (Object o : c)
+            write(o, attachments, out);
+    }
+
+    private static void writeMap(Map<?, ?> map, List<InputStream> attachments, Output out)
+            throws IOException
+    {
+        if (attachments != null && map.size() == 2 && Boolean.TRUE.equals(map.get("_placeholder")))
+        {
+            Object num = map.get("num");
+            if (num instanceof Integer && (Integer) num < attachments.size())
+            {
+                write(attachments.get((Integer) num), null, out);
+                return;
+            }
+        }
+
+        out.writeHeader(map.size(), 0x80, 16, 0xde, 0xdf);
+        for (Map.Entry<?, ?> e : map.entrySet())
+        {
+            write(e.getKey(), attachments, out);
+            write(e.getValue(), attachments, out);
+        }
+    }
+
+    private static void writeString(String s, Output out)
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 32)
+            out.write(0xa0 | bytes.length);
+        else if (bytes.length < 0x100)
+        {
+            out.write(0xd9);
+            out.write(bytes.length);
+        }
+        else
+            out.writeHeader(bytes.length, 0, 0, 0xda, 0xdb);
+
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeBinary(ByteBuffer data, Output out)
+    {
+        int len = data.remaining();
+        if (len < 0x100)
+        {
+            out.write(0xc4);
+            out.write(len);
+        }
+        else
+            out.writeHeader(len, 0, 0, 0xc5, 0xc6);
+
+        if (data.hasArray())
+            out.write(data.array(), data.arrayOffset() + data.position(), len);
+        else
+        {
+            byte[] copy = new byte[len];
+            data.get(copy);
+            out.write(copy, 0, len);
+        }
+    }
+
+    private static void writeBigInteger(BigInteger v, Output out)
+    {
+        if (v.bitLength() < 64)
+            writeLong(v.longValue(), out);
+        else if (v.signum() > 0 && v.bitLength() == 64)
+        {
+            out.write(0xcf);
+            out.writeLong(v.longValue());
+        }
+        else
+            out.writeDouble(v.doubleValue());
+    }
+
+    private static void writeLong(long v, Output out)
+    {
+        if (v >= 0)
+        {
+            if (v < 0x80)
+                out.write((int) v);
+            else if (v < 0x100)
+            {
+                out.write(0xcc);
+                out.write((int) v);
+            }
+            else if (v < 0x10000)
+            {
+                out.write(0xcd);
+                out.writeShort((int) v);
+            }
+            else if (v < 0x100000000L)
+            {
+                out.write(0xce);
+                out.writeInt((int) v);
+            }
+            else
+            {
+                out.write(0xcf);
+                out.writeLong(v);
+            }
+        }
+        else
+        {
+            if (v >= -32)
+                out.write((int) v & 0xff);
+            else if (v >= Byte.MIN_VALUE)
+            {
+                out.write(0xd0);
+                out.write((int) v & 0xff);
+            }
+            else if (v >= Short.MIN_VALUE)
+            {
+                out.write(0xd1);
+                out.writeShort((int) v);
+            }
+            else if (v >= Integer.MIN_VALUE)
+            {
+                out.write(0xd2);
+                out.writeInt((int) v);
+            }
+            else
+            {
+                out.write(0xd3);
+                out.writeLong(v);
+            }
+        }
+    }
+
+    private static Object read(ByteBuffer in)
+            throws SocketIOProtocolException
+    {
+        int b = in.get() & 0xff;
+
+        if (b < 0x80)
+            return b;
+        if (b < 0x90)
+            return readMap(b & 0x0f, in);
+        if (b < 0xa0)
+            return readArray(b & 0x0f, in);
+        if (b < 0xc0)
+            return readString(b & 0x1f, in);
+        if (b >= 0xe0)
+            return (int) (byte) b;
+
+        switch (b)
+        {
+            case 0xc0: return null;
+            case 0xc2: return false;
+            case 0xc3: return true;
+            case 0xc4: return readBinary(in.get() & 0xff, in);
+            case 0xc5: return readBinary(in.getShort() & 0xffff, in);
+            case 0xc6: return readBinary(length(in.getInt()), in);
+            case 0xc7: return readExt(in.get() & 0xff, in);
+            case 0xc8: return readExt(in.getShort() & 0xffff, in);
+            case 0xc9: return readExt(length(in.getInt()), in);
+            case 0xca: return (double) in.getFloat();
+            case 0xcb: return in.getDouble();
+            case 0xcc: return in.get() & 0xff;
+            case 0xcd: return in.getShort() & 0xffff;
+            case 0xce: return toNumber(in.getInt() & 0xffffffffL);
+            case 0xcf:
+                long v = in.getLong();
+                return v >= 0 ? toNumber(v) : BigInteger.valueOf(v).add(BigInteger.ONE.shiftLeft(64));
+            case 0xd0: return (int) in.get();
+            case 0xd1: return (int) in.getShort();
+            case 0xd2: return in.getInt();
+            case 0xd3: return toNumber(in.getLong());
+            case 0xd4: return readExt(1, in);
+            case 0xd5: return readExt(2, in);
+            case 0xd6: return readExt(4, in);
+            case 0xd7: return readExt(8, in);
+            case 0xd8: return readExt(16, in);
+            case 0xd9: return readString(in.get() & 0xff, in);
+            case 0xda: return readString(in.getShort() & 0xffff, in);
+            case 0xdb: return readString(length(in.getInt()), in);
+            case 0xdc: return readArray(in.getShort() & 0xffff, in);
+            case 0xdd: return readArray(length(in.getInt()), in);
+            case 0xde: return readMap(in.getShort() & 0xffff, in);
+            case 0xdf: return readMap(length(in.getInt()), in);
+            default:
+                throw new SocketIOProtocolException("Unexpected MessagePack type: " + b);
+        }
+    }
+
+    private static int length(int len) throws SocketIOProtocolException
+    {
+        if (len < 0)
+            throw new SocketIOProtocolException("MessagePack object is too large");
+        return len;
+    }
+
+    private static Object toNumber(long v)
+    {
+        if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+            return (int) v;
+        return v;
+    }
+
+    private static List<Object> readArray(int size, ByteBuffer in)
+            throws SocketIOProtocolException
+    {
+        List<Object> list = new ArrayList<>(Math.min(size, in.remaining()));
+        for (int i = 0; i < size; i++)
+            list.add(read(in));
+        return list;
+    }
+
+    private static Map<Object, Object> readMap(int size, ByteBuffer in)
+            throws SocketIOProtocolException
+    {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++)
+        {
+            Object key = read(in);
+            map.put(key, read(in));
+        }
+        return map;
+    }
+
+    private static String readString(int len, ByteBuffer in)
+    {
+        if (len > in.remaining())
+            throw new BufferUnderflowException();
+
+        String s;
+        if (in.hasArray())
+            s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        else
+        {
+            byte[] bytes = new byte[len];
+            in.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + len);
+        return s;
+    }
+
+    private static InputStream readBinary(int len, ByteBuffer in)
+    {
+        if (len > in.remaining())
+            throw new BufferUnderflowException();
+
+        ByteBuffer slice = in.slice();
+        slice.limit(len);
+        in.position(in.position() + len);
+        return new ByteBufferInputStream(slice);
+    }
+
+    /*
+     * notepack.io encodes undefined as fixext 1 and Date as fixext 8, both of type 0
+     */
+    private static Object readExt(int len, ByteBuffer in)
+            throws SocketIOProtocolException
+    {
+        int type = in.get();
+        if (type == 0 && len == 1)
+        {
+            in.get();
+            return null;
+        }
+        if (type == 0 && len == 8)
+            return new Date(in.getLong());
+
+        throw new SocketIOProtocolException("Unsupported MessagePack extension type: " + type);
+    }
+
+    private static final class Output extends ByteArrayOutputStream
+    {
+        Output()
+        {
+            super(256);
+        }
+
+        void writeShort(int v)
+        {
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeInt(int v)
+        {
+            writeShort(v >>> 16);
+            writeShort(v);
+        }
+
+        void writeLong(long v)
+        {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeFloat(float v)
+        {
+            write(0xca);
+            writeInt(Float.floatToIntBits(v));
+        }
+
+        void writeDouble(double v)
+        {
+            write(0xcb);
+            writeLong(Double.doubleToLongBits(v));
+        }
+
+        void writeDate(long time)
+        {
+            write(0xd7);
+            write(0);
+            writeLong(time);
+        }
+
+        /*
+         * Writes size header picking the shortest of fix, 16 and 32 bit forms.
+         */
+        void writeHeader(int size, int fix, int fixLimit, int code16, int code32)
+        {
+            if (size < fixLimit)
+                write(fix | size);
+            else if (size < 0x10000)
+            {
+                write(code16);
+                writeShort(size);
+            }
+            else
+            {
+                write(code32);
+                writeInt(size);
+            }
+        }
+
+        ByteBuffer toBuffer()
+        {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
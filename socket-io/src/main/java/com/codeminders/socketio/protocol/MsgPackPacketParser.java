@@ -0,0 +1,141 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser compatible with socket.io-msgpack-parser.
+ * <p>
+ * Every packet is encoded as a MessagePack map {@code {type, data, nsp, id}} and sent as a single
+ * binary message. Binary objects are written inline, so there are no placeholders and no
+ * attachment messages. Text messages are not supported.
+ */
+public final class MsgPackPacketParser implements PacketParser
+{
+    public static final String NAME = "msgpack";
+
+    private static final PacketDecoder DECODER = new PacketDecoder()
+    {
+        @Override
+        public SocketIOPacket decode(EngineIOPacket message) throws SocketIOProtocolException
+        {
+            return MsgPackPacketParser.decode(message);
+        }
+    };
+
+    @Override
+    public List<EngineIOPacket> encode(SocketIOPacket packet) throws SocketIOProtocolException
+    {
+        return Collections.singletonList(EngineIOProtocol.createMessagePacket(encodePacket(packet)));
+    }
+
+    @Override
+    public BroadcastFrame encodeFrame(SocketIOPacket packet) throws SocketIOProtocolException
+    {
+        return new BroadcastFrame(EngineIOProtocol.createMessagePacket(encodePacket(packet)),
+                Collections.<ByteBuffer>emptyList());
+    }
+
+    /**
+     * Decoder is stateless since every packet arrives in a single message.
+     */
+    @Override
+    public PacketDecoder createDecoder()
+    {
+        return DECODER;
+    }
+
+    private static ByteBuffer encodePacket(SocketIOPacket packet)
+            throws SocketIOProtocolException
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("type", packet.getType().value());
+        map.put("nsp", packet.getNamespace());
+        if (packet.getId() >= 0)
+            map.put("id", packet.getId());
+
+        Object data = packet.getData();
+        if (data != null)
+            map.put("data", data);
+
+        List<InputStream> attachments = null;
+        if (packet instanceof BinaryPacket)
+            attachments = new ArrayList<>(((BinaryPacket) packet).getAttachments());
+
+        return MsgPack.encode(map, attachments);
+    }
+
+    private static SocketIOPacket decode(EngineIOPacket message)
+            throws SocketIOProtocolException
+    {
+        ByteBuffer buffer = message.getBinaryBuffer();
+        if (buffer == null)
+        {
+            if (message.getBinaryData() == null)
+                throw new SocketIOProtocolException("Text packets are not supported by " + NAME + " parser");
+
+            try (InputStream is = message.getBinaryData())
+            {
+                buffer = ByteBuffer.wrap(ByteStreams.toByteArray(is));
+            }
+            catch (IOException e)
+            {
+                throw new SocketIOProtocolException("Cannot read binary packet", e);
+            }
+        }
+
+        Object o = MsgPack.decode(buffer);
+        if (!(o instanceof Map))
+            throw new SocketIOProtocolException("Map is expected");
+
+        Map<?, ?> map = (Map<?, ?>) o;
+
+        Object type = map.get("type");
+        if (!(type instanceof Integer))
+            throw new SocketIOProtocolException("Invalid packet type: " + type);
+
+        Object ns = map.get("nsp");
+        if (ns != null && !(ns instanceof String))
+            throw new SocketIOProtocolException("Invalid namespace: " + ns);
+
+        Object id = map.get("id");
+        if (id != null && !(id instanceof Integer && (Integer) id >= 0))
+            throw new SocketIOProtocolException("Invalid packet id: " + id);
+
+        return SocketIOProtocol.createPacket(SocketIOPacket.Type.fromInt((Integer) type),
+                id == null ? -1 : (Integer) id,
+                ns == null ? SocketIOProtocol.DEFAULT_NAMESPACE : (String) ns,
+                map.get("data"));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
+import java.util.List;
+
+/**
+ * Converts Socket.IO packets to Engine.IO messages and back.
+ * <p>
+ * The parser is chosen once for the whole server since all the namespaces of a client
+ * share one connection, see {@link com.codeminders.socketio.server.Config#PARSER}.
+ * Implementations must be thread-safe, per connection state is kept by {@link PacketDecoder}.
+ */
+public interface PacketParser
+{
+    /**
+     * Encodes a packet.
+     *
+     * @param packet packet to encode
+     * @return Engine.IO messages to be sent in the given order
+     * @throws SocketIOProtocolException if the packet cannot be encoded
+     */
+    List<EngineIOPacket> encode(SocketIOPacket packet) throws SocketIOProtocolException;
+
+    /**
+     * Encodes a packet once so it could be written to many connections.
+     *
+     * @param packet packet to encode
+     * @return encoded frame
+     * @throws SocketIOProtocolException if the packet cannot be encoded
+     */
+    BroadcastFrame encodeFrame(SocketIOPacket packet) throws SocketIOProtocolException;
+
+    /**
+     * @return new decoder for a single connection
+     */
+    PacketDecoder createDecoder();
+}
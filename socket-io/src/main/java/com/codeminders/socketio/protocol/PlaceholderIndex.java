@@ -0,0 +1,234 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locations of binary placeholders {@code {"_placeholder":true,"num":1}} in decoded packet arguments.
+ * <p>
+ * The arguments are walked once when the packet is decoded, then every arriving attachment
+ * is put in place of its placeholder without copying the arguments.
+ */
+final class PlaceholderIndex
+{
+    private final List<Slot> found = new ArrayList<>(); // all placeholders in the order they were met
+    private Slot[]           slots; // by attachment number
+
+    private PlaceholderIndex(Object[] args)
+    {
+        index(args);
+    }
+
+    /**
+     * Indexes arguments of a decoded packet. Placeholders have to be numbered from 0 to {@code attachments - 1}.
+     *
+     * @param args        decoded arguments, modified in place by {@link #insert(int, InputStream)}
+     * @param attachments number of attachments declared by the packet
+     * @throws SocketIOProtocolException if the placeholders do not match the number of attachments
+     */
+    PlaceholderIndex(Object[] args, int attachments) throws SocketIOProtocolException
+    {
+        this(args);
+
+        // every attachment needs a placeholder, so the count sent by the client cannot exceed the placeholders found
+        if (attachments > found.size())
+            throw new SocketIOProtocolException("Packet declares " + attachments + " attachments, but has only " +
+                    found.size() + " placeholders");
+
+        slots = new Slot[attachments];
+        for (Slot slot : found)
+        {
+            if (slot.num >= attachments)
+                throw new SocketIOProtocolException("Placeholder " + slot.num + " is out of range, packet declares " +
+                        attachments + " attachments");
+            slot.next = slots[slot.num];
+            slots[slot.num] = slot;
+        }
+
+        for (int num = 0; num < attachments; num++)
+        {
+            if (slots[num] == null)
+                throw new SocketIOProtocolException("No placeholder found for attachment " + num);
+        }
+    }
+
+    /**
+     * Indexes only the placeholder of the given attachment, other placeholders are ignored.
+     *
+     * @param args decoded arguments, modified in place by {@link #insert(int, InputStream)}
+     * @param num  attachment number
+     * @return the index
+     */
+    static PlaceholderIndex of(Object[] args, int num)
+    {
+        PlaceholderIndex index = new PlaceholderIndex(args);
+        index.slots = new Slot[num + 1];
+        for (Slot slot : index.found)
+        {
+            if (slot.num == num)
+            {
+                slot.next = index.slots[num];
+                index.slots[num] = slot;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Replaces placeholder with the attachment.
+     *
+     * @param num        attachment number
+     * @param attachment binary object
+     * @throws SocketIOProtocolException if there is no placeholder for the attachment
+     */
+    void insert(int num, InputStream attachment) throws SocketIOProtocolException
+    {
+        if (num < 0 || num >= slots.length || slots[num] == null)
+            throw new SocketIOProtocolException("No placeholder found for a binary object");
+
+        for (Slot slot = slots[num]; slot != null; slot = slot.next)
+            slot.set(attachment);
+    }
+
+    private void index(Object[] array)
+    {
+        for (int i = 0; i < array.length; i++)
+        {
+            Object o = array[i];
+            if (!index(o))
+                add(o, new ArraySlot(array, i));
+        }
+    }
+
+    /*
+     * @return true if o is a container and was indexed, false if o could be a placeholder
+     */
+    private boolean index(Object o)
+    {
+        if (o instanceof Object[])
+        {
+            index((Object[]) o);
+            return true;
+        }
+        if (o instanceof List)
+        {
+            @SuppressWarnings("unchecked")
+            List<Object> list = (List<Object>) o;
+            for (int i = 0; i < list.size(); i++)
+            {
+                Object e = list.get(i);
+                if (!index(e))
+                    add(e, new ListSlot(list, i));
+            }
+            return true;
+        }
+        if (o instanceof Map && SocketIOProtocol.getPlaceholderNum((Map<?, ?>) o) < 0)
+        {
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> map = (Map<Object, Object>) o;
+            for (Map.Entry<Object, Object> e : map.entrySet())
+            {
+                if (!index(e.getValue()))
+                    add(e.getValue(), new EntrySlot(e));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void add(Object o, Slot slot)
+    {
+        if (!(o instanceof Map))
+            return;
+
+        slot.num = SocketIOProtocol.getPlaceholderNum((Map<?, ?>) o);
+        if (slot.num >= 0)
+            found.add(slot);
+    }
+
+    private static abstract class Slot
+    {
+        int  num;
+        Slot next; // same attachment referenced more than once
+
+        abstract void set(Object value);
+    }
+
+    private static final class ArraySlot extends Slot
+    {
+        private final Object[] array;
+        private final int      index;
+
+        ArraySlot(Object[] array, int index)
+        {
+            this.array = array;
+            this.index = index;
+        }
+
+        @Override
+        void set(Object value)
+        {
+            array[index] = value;
+        }
+    }
+
+    private static final class ListSlot extends Slot
+    {
+        private final List<Object> list;
+        private final int          index;
+
+        ListSlot(List<Object> list, int index)
+        {
+            this.list = list;
+            this.index = index;
+        }
+
+        @Override
+        void set(Object value)
+        {
+            list.set(index, value);
+        }
+    }
+
+    private static final class EntrySlot extends Slot
+    {
+        private final Map.Entry<Object, Object> entry;
+
+        EntrySlot(Map.Entry<Object, Object> entry)
+        {
+            this.entry = entry;
+        }
+
+        @Override
+        void set(Object value)
+        {
+            entry.setValue(value);
+        }
+    }
+}
@@ -89,6 +89,17 @@ public abstract class SocketIOPacket
 
     protected abstract String encodeArgs() throws SocketIOProtocolException;
 
+    /**
+     * Used by parsers which encode the packet as a structure rather than a text,
+     * see {@link PacketParser}.
+     *
+     * @return payload of the packet, null if there is no payload
+     */
+    public Object getData()
+    {
+        return null;
+    }
+
     protected String encodeAttachments()
     {
         return "";
@@ -23,15 +23,21 @@
 package com.codeminders.socketio.protocol;
 
 import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.ByteStreams;
 
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.DecimalFormat;
-import java.text.ParsePosition;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,9 +59,11 @@ public final class SocketIOProtocol
 
     public static final String DEFAULT_NAMESPACE = "/";
 
+    private static final JavaType[] NO_TYPES = new JavaType[0];
+
     private static final String ATTACHMENTS_DELIMITER = "-";
-    private static final String NAMESPACE_PREFIX      = "/";
-    static final String NAMESPACE_DELIMITER   = ",";
+    private static final char   NAMESPACE_PREFIX      = '/';
+    static final String         NAMESPACE_DELIMITER   = ",";
 
     private SocketIOProtocol()
     {
@@ -93,6 +101,24 @@ public final class SocketIOProtocol
 
     public static SocketIOPacket decode(String data)
             throws SocketIOProtocolException
+    {
+        return decode(data, false);
+    }
+
+    /**
+     * Decodes Socket.IO packet.
+     * <p>
+     * In lazy mode the arguments of plain EVENT packet are only checked to be valid JSON. The packet keeps
+     * the raw JSON and its arguments are parsed on the first {@link EventPacket#getArgs()} call,
+     * which never happens if nobody listens to the event.
+     *
+     * @param data     encoded packet
+     * @param lazyArgs true to postpone parsing of event arguments
+     * @return decoded packet
+     * @throws SocketIOProtocolException if the packet is invalid
+     */
+    public static SocketIOPacket decode(String data, boolean lazyArgs)
+            throws SocketIOProtocolException
     {
         assert (data != null);
 
@@ -101,36 +127,55 @@ public final class SocketIOProtocol
 
         try
         {
-            ParsePosition pos = new ParsePosition(0);
-            SocketIOPacket.Type type = decodePacketType(data, pos);
+            // single pass over the packet header, pos always points to the next unread char
+            int pos = 0;
+            int len = data.length();
+
+            SocketIOPacket.Type type = SocketIOPacket.Type.fromInt(digit(data.charAt(pos++)));
 
             int attachments = 0;
             if (type == SocketIOPacket.Type.BINARY_ACK || type == SocketIOPacket.Type.BINARY_EVENT)
-                attachments = decodeAttachments(data, pos);
+            {
+                int start = pos;
+                long count = 0;
+                while (pos < len && isDigit(data.charAt(pos)))
+                {
+                    count = count * 10 + digit(data.charAt(pos++));
+                    if (count > Integer.MAX_VALUE)
+                        throw new SocketIOProtocolException("Number of attachments is out of range");
+                }
 
-            String ns = decodeNamespace(data, pos);
-            int packet_id = decodePacketId(data, pos);
-            Object json = decodeArgs(data, pos);
+                if (pos == start || count == 0)
+                    throw new SocketIOProtocolException("No attachments defined in BINARY packet: " + data);
 
-            List args = null;
-            String eventName = "";
-            if (type == SocketIOPacket.Type.EVENT ||
-                type == SocketIOPacket.Type.BINARY_EVENT ||
-                type == SocketIOPacket.Type.ACK ||
-                type == SocketIOPacket.Type.BINARY_ACK)
-            {
-                if (!(json instanceof List))
-                    throw new SocketIOProtocolException("Array payload is expected");
+                if (!data.startsWith(ATTACHMENTS_DELIMITER, pos))
+                    throw new SocketIOProtocolException("'" + ATTACHMENTS_DELIMITER + "' is expected after number of attachments");
 
-                args = (List)json;
+                attachments = (int) count;
+                pos += ATTACHMENTS_DELIMITER.length();
+            }
 
-                if (type == SocketIOPacket.Type.EVENT || type == SocketIOPacket.Type.BINARY_EVENT)
+            String ns = DEFAULT_NAMESPACE;
+            if (pos < len && data.charAt(pos) == NAMESPACE_PREFIX)
+            {
+                int idx = data.indexOf(NAMESPACE_DELIMITER, pos);
+                int end = idx < 0 ? len : idx;
+                if (end - pos > 1)
+                    ns = data.substring(pos, end);
+                pos = idx < 0 ? len : idx + 1;
+            }
+
+            int packet_id = -1;
+            if (pos < len && isDigit(data.charAt(pos)))
+            {
+                long id = 0;
+                while (pos < len && isDigit(data.charAt(pos)))
                 {
-                    if (args.size() == 0)
-                        throw new SocketIOProtocolException("Missing event name");
-                    eventName = args.get(0).toString();
-                    args.remove(0);
+                    id = id * 10 + digit(data.charAt(pos++));
+                    if (id > Integer.MAX_VALUE)
+                        throw new SocketIOProtocolException("Packet id is out of range");
                 }
+                packet_id = (int) id;
             }
 
             switch (type)
@@ -141,21 +186,76 @@ public final class SocketIOProtocol
                 case DISCONNECT:
                     return createDisconnectPacket(ns);
 
+                case ERROR:
+                    return createErrorPacket(ns, fromJSON(data, pos));
+
+                default:
+                    break;
+            }
+
+            boolean event = type == SocketIOPacket.Type.EVENT || type == SocketIOPacket.Type.BINARY_EVENT;
+            String eventName = "";
+            Object[] args;
+
+            if (pos >= len)
+                throw new SocketIOProtocolException("Array payload is expected");
+
+            try (JsonParser parser = createParser(data, pos))
+            {
+                if (parser.nextToken() != JsonToken.START_ARRAY)
+                    throw new SocketIOProtocolException("Array payload is expected");
+
+                if (event)
+                {
+                    JsonToken token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY || token == JsonToken.VALUE_NULL)
+                        throw new SocketIOProtocolException("Missing event name");
+                    eventName = token == JsonToken.VALUE_STRING ?
+                            parser.getText() : mapper.readValue(parser, Object.class).toString();
+
+                    if (lazyArgs && type == SocketIOPacket.Type.EVENT)
+                    {
+                        // parser offsets are relative to the beginning of JSON
+                        int argsStart = pos + (int) parser.getCurrentLocation().getCharOffset();
+                        while (argsStart < len && Character.isWhitespace(data.charAt(argsStart)))
+                            argsStart++;
+
+                        if (argsStart >= len || (data.charAt(argsStart) != ',' && data.charAt(argsStart) != ']'))
+                            throw new SocketIOProtocolException("Invalid event arguments");
+
+                        // raw arguments could be relayed to other clients as is, so they have to be valid JSON
+                        skipArray(parser);
+                        if (parser.nextToken() != null)
+                            throw new SocketIOProtocolException("Unexpected data after JSON array");
+
+                        return new LazyEventPacket(packet_id, ns, eventName, data, pos, argsStart);
+                    }
+                }
+
+                args = decodeArray(parser);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                throw e;
+            }
+            catch (IOException e)
+            {
+                throw new SocketIOProtocolException("Cannot parse JSON", e);
+            }
+
+            switch (type)
+            {
                 case EVENT:
-                    return new PlainEventPacket(packet_id, ns, eventName, args.toArray());
+                    return new PlainEventPacket(packet_id, ns, eventName, args);
 
                 case ACK:
-                    return new PlainACKPacket(packet_id, ns, args.toArray());
-
-                case ERROR:
-                    return createErrorPacket(ns, json);
+                    return new PlainACKPacket(packet_id, ns, args);
 
                 case BINARY_EVENT:
-                    return new BinaryEventPacket(packet_id, ns, eventName, args.toArray(), attachments);
+                    return new BinaryEventPacket(packet_id, ns, eventName, args, attachments);
 
                 case BINARY_ACK:
-                    assert (args != null); //just to make IDEA to shut up about possible NPE
-                    return new BinaryACKPacket(packet_id, ns, args.toArray(), attachments);
+                    return new BinaryACKPacket(packet_id, ns, args, attachments);
 
                 default:
                     throw new SocketIOProtocolException("Unsupported packet type " + type);
@@ -180,13 +280,19 @@ public final class SocketIOProtocol
             {
                 return toJSON(args);
             }
+
+            @Override
+            public Object getData()
+            {
+                return args;
+            }
         };
     }
 
     /*
      * This method could create either EventPacket or BinaryEventPacket based
      * on the content of args parameter.
-     * If args has any InputStream inside then SockeIOBinaryEventPacket will be created
+     * If args has any InputStream, byte[] or ByteBuffer inside then BinaryEventPacket will be created
      */
     public static SocketIOPacket createEventPacket(int packet_id, String ns, String name, Object[] args)
     {
@@ -196,6 +302,174 @@ public final class SocketIOProtocol
             return new PlainEventPacket(packet_id, ns, name, args);
     }
 
+    /**
+     * Encodes an event once so it could be written to many connections.
+     * Binary streams found in args are read into memory, so the frame could be sent more than once.
+     * {@code byte[]} and {@code ByteBuffer} objects are shared by all the recipients without copying.
+     *
+     * @param ns   namespace
+     * @param name event name
+     * @param args event arguments
+     * @return encoded frame
+     * @throws SocketIOProtocolException if the event cannot be encoded
+     */
+    public static BroadcastFrame createBroadcastFrame(String ns, String name, Object[] args)
+            throws SocketIOProtocolException
+    {
+        return createBroadcastFrame(createEventPacket(-1, ns, name, args));
+    }
+
+    /**
+     * Encodes an event with arguments already converted to JSON.
+     * Used to relay events without parsing and serializing its arguments again,
+     * see {@link EventPacket#getArgsJSON()}.
+     *
+     * @param ns       namespace
+     * @param name     event name
+     * @param argsJSON JSON array of event arguments
+     * @return encoded frame
+     * @throws SocketIOProtocolException if the event cannot be encoded
+     */
+    public static BroadcastFrame createJSONBroadcastFrame(String ns, String name, String argsJSON)
+            throws SocketIOProtocolException
+    {
+        return createBroadcastFrame(createJSONEventPacket(ns, name, argsJSON));
+    }
+
+    /**
+     * Creates an event with arguments already converted to JSON.
+     * JSON encoding splices the arguments as is, they are parsed only if a parser needs them as objects.
+     *
+     * @param ns       namespace
+     * @param name     event name
+     * @param argsJSON JSON array of event arguments
+     * @return event packet
+     */
+    public static EventPacket createJSONEventPacket(String ns, String name, final String argsJSON)
+    {
+        return new EventPacket(SocketIOPacket.Type.EVENT, -1, ns, name, null)
+        {
+            @Override
+            public Object[] getArgs()
+            {
+                if (super.getArgs() == null)
+                {
+                    Object args;
+                    try
+                    {
+                        args = fromJSON(argsJSON);
+                    }
+                    catch (SocketIOProtocolException e)
+                    {
+                        throw new IllegalArgumentException("Invalid event arguments: " + argsJSON, e);
+                    }
+                    if (!(args instanceof List))
+                        throw new IllegalArgumentException("JSON array is expected: " + argsJSON);
+
+                    setArgs(((List<?>) args).toArray());
+                }
+                return super.getArgs();
+            }
+
+            @Override
+            protected String encodeArgs() throws SocketIOProtocolException
+            {
+                return toJSON(getName(), argsJSON);
+            }
+
+            @Override
+            public String getArgsJSON()
+            {
+                return argsJSON;
+            }
+        };
+    }
+
+    /*
+     * Text encoding of the frame used by JSONPacketParser.
+     */
+    static BroadcastFrame createBroadcastFrame(SocketIOPacket packet)
+            throws SocketIOProtocolException
+    {
+        EngineIOPacket message = EngineIOProtocol.createMessagePacket(packet.encode());
+
+        if (!(packet instanceof BinaryPacket))
+            return new BroadcastFrame(message, Collections.<ByteBuffer>emptyList());
+
+        Collection<InputStream> streams = ((BinaryPacket) packet).getAttachments();
+        List<ByteBuffer> attachments = new ArrayList<>(streams.size());
+        try
+        {
+            for (InputStream is : streams)
+            {
+                if (is instanceof ByteBufferInputStream)
+                    attachments.add(((ByteBufferInputStream) is).getBuffer());
+                else
+                    attachments.add(ByteBuffer.wrap(ByteStreams.toByteArray(is)));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new SocketIOProtocolException("Cannot read binary object", e);
+        }
+
+        return new BroadcastFrame(message, attachments);
+    }
+
+    /*
+     * Creates a packet from its structured form, used by parsers which carry binary objects inline.
+     * The packet is complete, binary objects found in data are passed to the listeners as is.
+     */
+    static SocketIOPacket createPacket(SocketIOPacket.Type type, int id, String ns, Object data)
+            throws SocketIOProtocolException
+    {
+        switch (type)
+        {
+            case CONNECT:
+                return createConnectPacket(ns);
+
+            case DISCONNECT:
+                return createDisconnectPacket(ns);
+
+            case ERROR:
+                return createErrorPacket(ns, data);
+
+            default:
+                break;
+        }
+
+        Object[] args;
+        if (data instanceof Object[])
+            args = (Object[]) data;
+        else if (data instanceof List)
+            args = ((List<?>) data).toArray();
+        else
+            throw new SocketIOProtocolException("Array payload is expected");
+
+        switch (type)
+        {
+            case EVENT:
+            case BINARY_EVENT:
+                if (args.length == 0 || args[0] == null)
+                    throw new SocketIOProtocolException("Missing event name");
+
+                String name = args[0].toString();
+                args = Arrays.copyOfRange(args, 1, args.length);
+                if (type == SocketIOPacket.Type.EVENT)
+                    return new PlainEventPacket(id, ns, name, args);
+                return new BinaryEventPacket(id, ns, name, args, 0);
+
+            case ACK:
+                return new PlainACKPacket(id, ns, args);
+
+            case BINARY_ACK:
+                return new BinaryACKPacket(id, ns, args, 0);
+
+            default:
+                throw new SocketIOProtocolException("Unsupported packet type " + type);
+        }
+    }
+
     public static SocketIOPacket createACKPacket(int id, String ns, Object[] args)
     {
         if (hasBinary(args))
@@ -227,15 +501,78 @@ public final class SocketIOProtocol
         }
     }
 
+    /**
+     * Builds JSON array of an event putting event name in front of arguments array.
+     *
+     * @param name     event name
+     * @param argsJSON JSON array of arguments
+     * @return JSON array
+     * @throws SocketIOProtocolException if argsJSON is not an array
+     */
+    static String toJSON(String name, String argsJSON)
+            throws SocketIOProtocolException
+    {
+        if (argsJSON == null)
+            throw new SocketIOProtocolException("JSON array is expected: null");
+
+        int start = 0;
+        int end = argsJSON.length();
+        while (start < end && Character.isWhitespace(argsJSON.charAt(start)))
+            start++;
+        while (end > start && Character.isWhitespace(argsJSON.charAt(end - 1)))
+            end--;
+
+        if (end - start < 2 || argsJSON.charAt(start) != '[' || argsJSON.charAt(end - 1) != ']')
+            throw new SocketIOProtocolException("JSON array is expected: " + argsJSON);
+
+        StringBuilder sb = new StringBuilder(argsJSON.length() + name.length() + 8);
+        sb.append('[').append(toJSON(name));
+
+        int inner = start + 1;
+        while (inner < end - 1 && Character.isWhitespace(argsJSON.charAt(inner)))
+            inner++;
+        if (inner < end - 1)
+            sb.append(',').append(argsJSON, inner, end);
+        else
+            sb.append(']');
+
+        return sb.toString();
+    }
+
+    /*
+     * Converts POJO into a tree of maps, lists and scalars, the same way it would be written to JSON.
+     */
+    static Object toPlainObject(Object o)
+    {
+        return mapper.convertValue(o, Object.class);
+    }
+
     static Object fromJSON(String s)
             throws SocketIOProtocolException
     {
-        try
-        {
-            if(s == null || s.isEmpty())
-                return null;
+        if(s == null)
+            return null;
 
-            return mapper.readValue(s, Object.class);
+        return fromJSON(s, 0);
+    }
+
+    /**
+     * Parses JSON value starting at {@code offset} without copying the tail of the string.
+     *
+     * @param s      string containing JSON
+     * @param offset position of the first JSON character
+     * @return parsed object or null if there is no JSON at the offset
+     * @throws SocketIOProtocolException if JSON cannot be parsed
+     */
+    static Object fromJSON(String s, int offset)
+            throws SocketIOProtocolException
+    {
+        if(offset >= s.length())
+            return null;
+
+        try (JsonParser parser = createParser(s, offset))
+        {
+            return mapper.readValue(parser, Object.class);
         }
         catch (IOException e)
         {
@@ -243,63 +580,96 @@ public final class SocketIOProtocol
         }
     }
 
-    static String decodeNamespace(String data, ParsePosition pos)
+    static JsonParser createParser(String s, int offset)
+            throws IOException
     {
-        String ns = DEFAULT_NAMESPACE;
-        if (data.startsWith(NAMESPACE_PREFIX, pos.getIndex()))
-        {
-            int idx = data.indexOf(NAMESPACE_DELIMITER, pos.getIndex());
-            if (idx < 0)
-            {
-                ns = data.substring(pos.getIndex());
-                pos.setIndex(data.length());
-            }
-            else
-            {
-                ns = data.substring(pos.getIndex(), idx);
-                pos.setIndex(idx + 1);
-            }
-        }
-        return ns;
+        // StringReader.skip() is just an index move, so Jackson reads the tail
+        // straight from the packet into its own recycled buffer
+        StringReader reader = new StringReader(s);
+        if (reader.skip(offset) != offset)
+            throw new EOFException();
+
+        return mapper.getFactory().createParser(reader);
     }
 
-    static int decodeAttachments(String data, ParsePosition pos)
-            throws SocketIOProtocolException
+    /*
+     * Reads remaining elements of the JSON array the parser is positioned in.
+     */
+    static Object[] decodeArray(JsonParser parser)
+            throws IOException
     {
-        Number n = new DecimalFormat("#").parse(data, pos);
-        if (n == null || n.intValue() == 0)
-            throw new SocketIOProtocolException("No attachments defined in BINARY packet: " + data);
+        return decodeArray(parser, NO_TYPES);
+    }
 
-        pos.setIndex(pos.getIndex() + 1); //skipping '-' delimiter
+    /*
+     * Same as above, but binds the elements straight to the given types.
+     * Elements beyond the types array are read as generic objects.
+     */
+    static Object[] decodeArray(JsonParser parser, JavaType[] types)
+            throws IOException
+    {
+        ArrayList<Object> args = new ArrayList<>();
 
-        return n.intValue();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+        {
+            if (token == null)
+                throw new JsonParseException("Unexpected end of array", parser.getCurrentLocation());
+
+            int i = args.size();
+            args.add(i < types.length ? mapper.readValue(parser, types[i]) : mapper.readValue(parser, Object.class));
+        }
+
+        return args.toArray();
     }
 
-    static int decodePacketId(String data, ParsePosition pos)
+    /*
+     * Checks the remaining elements of the JSON array the parser is positioned in without building them.
+     */
+    static void skipArray(JsonParser parser)
+            throws IOException
     {
-        Number id = new DecimalFormat("#").parse(data, pos);
-        if (id == null)
-            return -1;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+        {
+            if (token == null)
+                throw new JsonParseException("Unexpected end of array", parser.getCurrentLocation());
 
-        return id.intValue();
+            parser.skipChildren();
+        }
     }
 
-    static SocketIOPacket.Type decodePacketType(String data, ParsePosition pos)
+    /*
+     * Converts already decoded arguments to the given types.
+     */
+    static Object[] convertArgs(Object[] args, JavaType[] types)
             throws SocketIOProtocolException
     {
-        int idx = pos.getIndex();
-        SocketIOPacket.Type type = SocketIOPacket.Type.fromInt(Integer.parseInt(data.substring(idx, idx + 1)));
-        pos.setIndex(idx + 1);
-        return type;
+        Object[] result = args.clone();
+        try
+        {
+            for (int i = 0; i < result.length && i < types.length; i++)
+                if (result[i] != null)
+                    result[i] = mapper.convertValue(result[i], types[i]);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new SocketIOProtocolException("Cannot convert event arguments", e);
+        }
+        return result;
     }
 
-    //TODO: pass what type (Array, Map, Object) is expected?
-    static Object decodeArgs(String data, ParsePosition pos)
-            throws SocketIOProtocolException
+    private static boolean isDigit(char c)
     {
-        Object json = fromJSON(data.substring(pos.getIndex()));
-        pos.setIndex(data.length());
-        return json;
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digit(char c)
+    {
+        if (!isDigit(c))
+            throw new NumberFormatException("Not a digit: " + c);
+
+        return c - '0';
     }
 
     static String encodeNamespace(String namespace, boolean addDelimiter)
@@ -314,9 +684,24 @@ public final class SocketIOProtocol
         return String.valueOf(size) + ATTACHMENTS_DELIMITER;
     }
 
+    /**
+     * @param o object to check
+     * @return true if the object is to be sent as a binary attachment
+     */
+    static boolean isBinary(Object o)
+    {
+        return o instanceof InputStream || o instanceof byte[] || o instanceof ByteBuffer;
+    }
+
     private static boolean hasBinary(Object args)
     {
-        if (args.getClass().isArray())
+        if (args == null)
+            return false;
+
+        if (isBinary(args))
+            return true;
+
+        if (args instanceof Object[])
         {
             for (Object o : (Object[]) args)
                 if (hasBinary(o))
@@ -328,18 +713,16 @@ public final class SocketIOProtocol
                 if (hasBinary(o))
                     return true;
         }
-        else
-        {
-            return (args instanceof InputStream);
-        }
 
         return false;
     }
 
     /**
-     * Extracts binary objects (InputStream) from JSON and replaces it with
-     * placeholder objects {@code {"_placeholder":true,"num":1} }
-     * This method to be used before sending the packet
+     * Extracts binary objects ({@code InputStream}, {@code byte[]} or {@code ByteBuffer}) from JSON and replaces
+     * it with placeholder objects {@code {"_placeholder":true,"num":1} }
+     * This method to be used before sending the packet.
+     * {@code byte[]} and {@code ByteBuffer} objects are not copied, they are wrapped into
+     * {@link ByteBufferInputStream} so transports could write them directly.
      *
      * @param json        JSON object
      * @param attachments container for extracted binary object
@@ -349,14 +732,28 @@ public final class SocketIOProtocol
     static Object extractBinaryObjects(Object json, List<InputStream> attachments)
     {
         //TODO: what about Collection? for now only array is supported
-        if (json.getClass().isArray())
+        if (json == null)
+        {
+            return null;
+        }
+        else if (isBinary(json))
         {
-            ArrayList<Object> array = new ArrayList<>(((Object[]) json).length);
+            LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+            map.put("_placeholder", true);
+            map.put("num", attachments.size());
+            attachments.add(toInputStream(json));
 
-            for (Object o : (Object[]) json)
-                array.add(extractBinaryObjects(o, attachments));
+            return map;
+        }
+        else if (json instanceof Object[])
+        {
+            Object[] array = (Object[]) json;
+            Object[] copy = new Object[array.length];
+
+            for (int i = 0; i < array.length; i++)
+                copy[i] = extractBinaryObjects(array[i], attachments);
 
-            return array.toArray();
+            return copy;
         }
         else if (json instanceof Map)
         {
@@ -364,16 +761,7 @@ public final class SocketIOProtocol
             Set<Map.Entry> entries = ((Map) json).entrySet();
 
             for (Map.Entry e : entries)
-                map.put(e.getKey(), extractBinaryObjects(e, attachments));
-
-            return map;
-        }
-        else if (json instanceof InputStream)
-        {
-            LinkedHashMap<String, Object> map = new LinkedHashMap<>();
-            map.put("_placeholder", true);
-            map.put("num", attachments.size());
-            attachments.add((InputStream) json);
+                map.put(e.getKey(), extractBinaryObjects(e.getValue(), attachments));
 
             return map;
         }
@@ -381,10 +769,22 @@ public final class SocketIOProtocol
             return json;
     }
 
+    private static InputStream toInputStream(Object binary)
+    {
+        if (binary instanceof byte[])
+            return new ByteBufferInputStream((byte[]) binary);
+        if (binary instanceof ByteBuffer)
+            return new ByteBufferInputStream((ByteBuffer) binary);
+
+        return (InputStream) binary;
+    }
+
     /**
-     * Looks for the placeholder objects in {@code json.getArgs() } {@code {"_placeholder":true,"num":1}} and
-     * replaces it with {@code attachment}
-     * This method to be used when binary object are received from the client
+     * Looks for the placeholder object {@code {"_placeholder":true,"num":N}} in {@code packet.getArgs()},
+     * where N is the number of attachments already added to the packet, and replaces it with {@code attachment}.
+     * The arguments are modified in place.
+     * Decoded packets do this in {@link BinaryPacket#addAttachment(InputStream)} using placeholder locations
+     * indexed once when the packet is decoded, so this method is only needed for packets built some other way.
      *
      * @param packet     packet to add a binary object
      * @param attachment binary object to insert
@@ -393,83 +793,33 @@ public final class SocketIOProtocol
     public static void insertBinaryObject(BinaryPacket packet, InputStream attachment)
             throws SocketIOProtocolException
     {
-        boolean[] found = new boolean[1];
-
-        Object copy = insertBinaryObject(packet.getArgs(), attachment, packet.getAttachments().size(), found);
-        if(!found[0])
-            throw new SocketIOProtocolException("No placeholder found for a binary object");
-
-        packet.setArgs((Object[])copy);
+        int num = packet.getAttachments().size();
+        PlaceholderIndex.of(packet.getArgs(), num).insert(num, attachment);
     }
 
     /*
-     * This method makes a copy of {@code json} replacing placeholder entry with {@code attachment}
-     *
-     * @param json       JSON object
-     * @param attachment InputStream object to insert
-     * @return copy of JSON object
+     * @return attachment number if the map is a placeholder object, -1 otherwise
      */
-    @SuppressWarnings("unchecked")
-    private static Object insertBinaryObject(Object json, InputStream attachment, int index, boolean[] found)
-        throws SocketIOProtocolException
+    static int getPlaceholderNum(Map<?, ?> map)
     {
-        //TODO: what about Collection? for now only array is supported
-        if (json.getClass().isArray())
-        {
-            ArrayList<Object> copy = new ArrayList<>(((Object[]) json).length);
+        if (map.size() > 2 || !Boolean.TRUE.equals(map.get("_placeholder")))
+            return -1;
 
-            for (Object o : (Object[]) json)
-                copy.add(insertBinaryObject(o, attachment, index, found));
+        Object o = map.get("num");
+        if (o instanceof Number)
+            return ((Number) o).intValue();
 
-            return copy.toArray();
-        }
-        else if (json instanceof Map)
+        if (o instanceof String)
         {
-            Map<Object, Object> map = (Map) json;
-
-            if (isPlaceholder(map, index))
+            try
             {
-                found[0] = true;
-                return attachment;
+                return Integer.parseInt(o.toString());
             }
-
-            Map<Object, Object> copy = new LinkedHashMap<>();
-            Set<Map.Entry<Object, Object>> entries = map.entrySet();
-
-            for (Map.Entry e : entries)
-                copy.put(e.getKey(), insertBinaryObject(e.getValue(), attachment, index, found));
-
-            return copy;
-        }
-        else
-            return json;
-    }
-
-    private static boolean isPlaceholder(Map<Object, Object> map, int index)
-            throws SocketIOProtocolException
-    {
-        if(Boolean.TRUE.equals(map.get("_placeholder")))
-        {
-            Object o = map.get("num");
-
-            if(o == null)
-                return false;
-
-            if(o instanceof Number)
-                return index == ((Number)o).intValue();
-
-            if(o instanceof String)
+            catch (NumberFormatException e)
             {
-                try
-                {
-                    return index == Integer.parseInt(o.toString());
-                }
-                catch (NumberFormatException e)
-                {
-                    throw new SocketIOProtocolException("Invalid placeholder object", e);
-                }
+                return -1;
             }
         }
-        return false;
+        return -1;
     }
 }
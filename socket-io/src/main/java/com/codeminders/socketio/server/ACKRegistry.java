@@ -0,0 +1,257 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listeners waiting for acknowledgement, keyed by packet id.
+ * Open addressing table with linear probing over primitive keys, so there is no boxing and no per-entry node.
+ * Number of entries is capped to keep memory bounded when the client never acknowledges.
+ * <p>
+ * Every method locks the registry. Registry belongs to one session, so the lock is only shared by the threads
+ * emitting to that session and its mailbox, and it is held for a few array accesses.
+ */
+final class ACKRegistry
+{
+    static final class Pending
+    {
+        final ACKListener listener;
+        volatile TimeoutWheel.Timeout timeout; // null if the ACK never expires
+
+        Pending(ACKListener listener)
+        {
+            this.listener = listener;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 16; // power of two
+
+    private final int maxSize;
+
+    // guarded by this
+    private int[]     keys   = new int[INITIAL_CAPACITY];
+    private Pending[] values = new Pending[INITIAL_CAPACITY];
+    private int       size;
+    private int       nextId;
+
+    ACKRegistry(int maxSize)
+    {
+        this(maxSize, 0);
+    }
+
+    /**
+     * @param firstId first packet id to hand out
+     */
+    ACKRegistry(int maxSize, int firstId)
+    {
+        this.maxSize = maxSize;
+        this.nextId = firstId;
+    }
+
+    /**
+     * @return next packet id, never negative
+     */
+    synchronized int nextId()
+    {
+        return nextId++ & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds the entry under a new packet id.
+     *
+     * @return packet id or -1 if the registry is full
+     */
+    synchronized int add(Pending pending)
+    {
+        if (size >= maxSize)
+            return -1;
+
+        int id;
+        do
+        {
+            id = nextId();
+        }
+        while (!insert(id, pending, false)); // id is still taken after the counter wrapped around
+
+        return id;
+    }
+
+    /**
+     * Adds the entry under the given id, replacing existing one.
+     *
+     * @return false if the id is new and the registry is full
+     */
+    synchronized boolean put(int id, Pending pending)
+    {
+        if (size >= maxSize && !contains(id))
+            return false;
+
+        insert(id, pending, true);
+        return true;
+    }
+
+    /**
+     * @param id       packet id
+     * @param expected entry to remove, null to remove any entry with the id
+     * @return removed entry or null if there is no such entry
+     */
+    synchronized Pending remove(int id, Pending expected)
+    {
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (values[i] != null)
+        {
+            if (keys[i] == id)
+            {
+                Pending pending = values[i];
+                if (expected != null && expected != pending)
+                    return null;
+                delete(i);
+                return pending;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all entries.
+     *
+     * @return removed entries
+     */
+    synchronized List<Pending> clear()
+    {
+        List<Pending> removed = new ArrayList<>(size);
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                removed.add(values[i]);
+                values[i] = null;
+            }
+        }
+        size = 0;
+        if (keys.length > INITIAL_CAPACITY)
+        {
+            keys = new int[INITIAL_CAPACITY];
+            values = new Pending[INITIAL_CAPACITY];
+        }
+        return removed;
+    }
+
+    private boolean contains(int id)
+    {
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (values[i] != null)
+        {
+            if (keys[i] == id)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /*
+     * Shifts following entries of the probe sequence back, so the table never needs tombstones
+     */
+    private void delete(int i)
+    {
+        int mask = keys.length - 1;
+        int hole = i;
+        int j = i;
+        while (true)
+        {
+            j = (j + 1) & mask;
+            if (values[j] == null)
+                break;
+
+            int home = hash(keys[j]) & mask;
+            // move the entry into the hole unless its home slot lies cyclically in (hole, j]
+            if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j))
+            {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = null;
+        size--;
+    }
+
+    private boolean insert(int id, Pending pending, boolean replace)
+    {
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (values[i] != null)
+        {
+            if (keys[i] == id)
+            {
+                if (replace)
+                    values[i] = pending;
+                return replace;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = pending;
+        size++;
+        return true;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] oldKeys = keys;
+        Pending[] oldValues = values;
+        keys = new int[capacity];
+        values = new Pending[capacity];
+
+        int mask = capacity - 1;
+        for (int k = 0; k < oldValues.length; k++)
+        {
+            if (oldValues[k] == null)
+                continue;
+            int i = hash(oldKeys[k]) & mask;
+            while (values[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[k];
+            values[i] = oldValues[k];
+        }
+    }
+
+    private static int hash(int id)
+    {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
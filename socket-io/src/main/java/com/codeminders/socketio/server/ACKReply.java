@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.ConnectionState;
+import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Acknowledgement of an incoming event, see {@link AsyncEventListener}.
+ * Could be sent from any thread, but only once.
+ */
+public final class ACKReply
+{
+    private final Session session;
+    private final String  namespace;
+    private final int     packetId;
+
+    private final AtomicBoolean sent = new AtomicBoolean();
+
+    ACKReply(Session session, String namespace, int packetId)
+    {
+        this.session = session;
+        this.namespace = namespace;
+        this.packetId = packetId;
+    }
+
+    /**
+     * Sends the acknowledgement. Binary arguments are sent as binary ACK.
+     *
+     * @param args acknowledgement arguments
+     * @throws SocketIOClosedException if the session is closed
+     * @throws SocketIOException if the packet cannot be sent
+     * @throws IllegalStateException if the acknowledgement has been sent already
+     */
+    public void send(Object... args) throws SocketIOException
+    {
+        if (!sent.compareAndSet(false, true))
+            throw new IllegalStateException("ACK " + packetId + " has been sent already");
+
+        ConnectionState state = session.getConnectionState();
+        if (state != ConnectionState.CONNECTED && state != ConnectionState.CLOSING)
+            throw new SocketIOClosedException();
+
+        session.getConnection().send(SocketIOProtocol.createACKPacket(packetId, namespace, args));
+    }
+
+    /**
+     * @return true if the acknowledgement has been sent
+     */
+    public boolean isSent()
+    {
+        return sent.get();
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
+
+import java.util.*;
+
+/**
+ * Emits an event to the sockets of several rooms, each socket gets it once.
+ * <pre>
+ *     namespace.to("room1").to("room2").except("room3").emit("event", args);
+ * </pre>
+ * Without target rooms the event goes to every socket of the namespace.
+ * The recipients are computed when the event is emitted, the event is encoded once for all of them.
+ */
+public final class BroadcastOperator implements Outbound
+{
+    private final Namespace   namespace;
+    private final Set<String> rooms         = new LinkedHashSet<>();
+    private final Set<String> exceptRooms   = new HashSet<>();
+    private final Set<Socket> exceptSockets = new HashSet<>();
+
+    BroadcastOperator(Namespace namespace)
+    {
+        this.namespace = namespace;
+    }
+
+    /**
+     * Adds a room to send the event to
+     *
+     * @param room room id
+     * @return this operator
+     */
+    public BroadcastOperator to(String room)
+    {
+        rooms.add(room);
+        return this;
+    }
+
+    /**
+     * Same as {@link #to(String)}
+     *
+     * @param room room id
+     * @return this operator
+     */
+    public BroadcastOperator in(String room)
+    {
+        return to(room);
+    }
+
+    /**
+     * Skips the sockets of the room
+     *
+     * @param room room id
+     * @return this operator
+     */
+    public BroadcastOperator except(String room)
+    {
+        exceptRooms.add(room);
+        return this;
+    }
+
+    /**
+     * Skips the socket
+     *
+     * @param socket socket not to send the event to, usually the sender
+     * @return this operator
+     */
+    public BroadcastOperator except(Socket socket)
+    {
+        exceptSockets.add(socket);
+        return this;
+    }
+
+    @Override
+    public void emit(String name, Object... args) throws SocketIOException
+    {
+        namespace.broadcast(recipients(), null, null, false, name, args);
+    }
+
+    /**
+     * Emits an event to the recipients which could take it right away,
+     * see {@link Socket#emitVolatile(String, Object...)}.
+     *
+     * @param name event name
+     * @param args event arguments
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    public void emitVolatile(String name, Object... args) throws SocketIOException
+    {
+        namespace.broadcast(recipients(), null, null, true, name, args);
+    }
+
+    /**
+     * Emits an event and tells the listener when it is written
+     *
+     * @param name     event name
+     * @param args     event arguments
+     * @param listener told how many sockets the event was delivered to
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    public void emit(String name, Object[] args, BroadcastListener listener) throws SocketIOException
+    {
+        namespace.broadcast(recipients(), null, listener, false, name, args);
+    }
+
+    /**
+     * Emits an event with arguments already converted to JSON
+     *
+     * @param name event name
+     * @param json event arguments as JSON array
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    public void emitJSON(String name, String json) throws SocketIOException
+    {
+        namespace.broadcast(recipients(), null,
+                namespace.encode(SocketIOProtocol.createJSONEventPacket(namespace.getId(), name, json)), null, false);
+    }
+
+    /**
+     * @return sockets the event is sent to, each one once
+     */
+    List<Socket> recipients()
+    {
+        List<Set<Socket>> excluded = new ArrayList<>(exceptRooms.size());
+        for (String room : exceptRooms)
+            excluded.add(namespace.members(room));
+
+        ArrayList<Socket> recipients = new ArrayList<>();
+        if (rooms.isEmpty())
+        {
+            addAll(namespace.getSockets(), excluded, recipients, null);
+        }
+        else if (rooms.size() == 1)
+        {
+            addAll(namespace.members(rooms.iterator().next()), excluded, recipients, null);
+        }
+        else
+        {
+            // a socket could be in several rooms
+            Set<Socket> added = new HashSet<>();
+            for (String room : rooms)
+                addAll(namespace.members(room), excluded, recipients, added);
+        }
+        return recipients;
+    }
+
+    private void addAll(Collection<Socket> sockets, List<Set<Socket>> excluded, List<Socket> recipients, Set<Socket> added)
+    {
+        for (Socket socket : sockets)
+        {
+            if (exceptSockets.contains(socket) || isExcluded(socket, excluded))
+                continue;
+            if (added != null && !added.add(socket))
+                continue;
+            recipients.add(socket);
+        }
+    }
+
+    private static boolean isExcluded(Socket socket, List<Set<Socket>> excluded)
+    {
+        for (Set<Socket> room : excluded)
+        {
+            if (room.contains(socket))
+                return true;
+        }
+        return false;
+    }
+}
@@ -33,12 +33,65 @@ public interface Config
     String PING_INTERVAL         = "pingInterval";
     String TIMEOUT               = "timeout";
 
+    /**
+     * Packet parser: "json" (default), "msgpack" or class name of
+     * {@link com.codeminders.socketio.protocol.PacketParser} implementation
+     */
+    String PARSER                = "parser";
+
+    /**
+     * Size of websocket outbound queue. When set, messages are written asynchronously,
+     * otherwise the sending thread waits until every message is written
+     */
+    String SEND_QUEUE_SIZE     = "sendQueueSize";
+
+    /**
+     * What to do when websocket outbound queue is full: "drop", "disconnect" (default) or "block"
+     */
+    String SEND_QUEUE_OVERFLOW = "sendQueueOverflow";
+
+    /**
+     * Volatile emits are dropped when more than this many messages are waiting in websocket outbound queue.
+     * 0 (default) drops them as soon as a message has to wait
+     */
+    String SEND_QUEUE_WATERMARK = "sendQueueWatermark";
+
+    /**
+     * Max number of threads writing streamed binary messages from websocket outbound queues.
+     * Defaults to 4 per processor
+     */
+    String SEND_STREAM_THREADS = "sendStreamThreads";
+
+    /**
+     * Polling response takes queued packets until it reaches this size in bytes,
+     * the rest is left for the next poll
+     */
+    String MAX_POLL_RESPONSE_SIZE = "maxPollResponseSize";
+
+    /**
+     * Max number of ACKs a session could wait for at the same time
+     */
+    String MAX_PENDING_ACKS = "maxPendingACKs";
+
+    /**
+     * Number of threads sessions process incoming packets on. Defaults to the number of processors
+     */
+    String DISPATCH_THREADS = "dispatchThreads";
+
+    /**
+     * Broadcasts to at least this many sockets are written in parallel. 0 (default) disables parallel writes
+     */
+    String PARALLEL_BROADCAST_THRESHOLD = "parallelBroadcastThreshold";
+
     String BUFFER_SIZE = "bufferSize";
     String MAX_IDLE    = "maxIdleTime";
 
     int DEFAULT_BUFFER_SIZE = 8192;
     int DEFAULT_MAX_IDLE    = 300 * 1000;
 
+    int DEFAULT_MAX_POLL_RESPONSE_SIZE = 1024 * 1024;
+    int DEFAULT_MAX_PENDING_ACKS       = 1024;
+
     int DEFAULT_PING_INTERVAL = 25 * 1000; // 25s
     int DEFAULT_PING_TIMEOUT  = 60 * 1000; // 60s
 
@@ -0,0 +1,231 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes broadcast frames to the recipients.
+ * <p>
+ * Small broadcasts are written on the caller's thread. Larger ones are split into partitions
+ * by socket and every partition is written by its own {@link SerialExecutor} on the pool,
+ * so a socket always lands in the same partition and gets the broadcasts in the order they were made.
+ */
+final class FanOut
+{
+    private static final Logger LOGGER = Logger.getLogger(FanOut.class.getName());
+
+    private final SerialExecutor[] partitions;
+    private final int              threshold;
+
+    /**
+     * @param pool       pool to write on
+     * @param partitions number of partitions, the more there are the better the work is spread over the pool
+     * @param threshold  min number of recipients to write in parallel
+     */
+    FanOut(Executor pool, int partitions, int threshold)
+    {
+        assert (partitions > 0);
+        assert (threshold > 0);
+
+        this.partitions = new SerialExecutor[partitions];
+        for (int i = 0; i < partitions; i++)
+            this.partitions[i] = new SerialExecutor(pool);
+        this.threshold = threshold;
+    }
+
+    int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Writes the frame to the recipients in parallel, returns before the frame is written
+     *
+     * @param recipients sockets to send the event to
+     * @param sender     socket to skip, could be null
+     * @param frame      encoded event
+     * @param listener   told when all the recipients are done, could be null
+     * @param volatileDrops null to write to every recipient, otherwise the frame is volatile:
+     *                      recipients whose connection is not writable are skipped and counted here
+     */
+    void submit(Collection<Socket> recipients, Socket sender, final BroadcastFrame frame, BroadcastListener listener,
+                final AtomicLong volatileDrops)
+    {
+        @SuppressWarnings("unchecked")
+        List<Socket>[] parts = new List[partitions.length];
+        int expected = recipients.size() / partitions.length + 1;
+        for (Socket socket : recipients)
+        {
+            if (socket == sender)
+                continue;
+
+            int h = socket.hashCode();
+            int i = ((h ^ (h >>> 16)) & 0x7fffffff) % partitions.length;
+            if (parts[i] == null)
+                parts[i] = new ArrayList<>(expected);
+            parts[i].add(socket);
+        }
+
+        int count = 0;
+        for (List<Socket> part : parts)
+        {
+            if (part != null)
+                count++;
+        }
+
+        if (count == 0)
+        {
+            complete(listener, 0, 0, 0);
+            return;
+        }
+
+        final Tally tally = new Tally(listener, count);
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            final List<Socket> part = parts[i];
+            if (part == null)
+                continue;
+
+            partitions[i].execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    write(part, null, frame, volatileDrops, tally);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the frame to the recipients on the caller's thread, see {@link #submit} for the parameters
+     */
+    static void write(Iterable<Socket> recipients, Socket sender, BroadcastFrame frame, BroadcastListener listener,
+                      AtomicLong volatileDrops)
+    {
+        write(recipients, sender, frame, volatileDrops, new Tally(listener, 1));
+    }
+
+    /**
+     * Tells the listener that the broadcast is over
+     *
+     * @param listener listener to notify, null to log a warning if writes failed
+     */
+    static void complete(BroadcastListener listener, int delivered, int dropped, int failed)
+    {
+        if (listener == null)
+        {
+            // nobody else learns about the failures, causes are logged per socket at FINE
+            if (failed > 0 && LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning("Broadcast failed for " + failed + " of " + (delivered + dropped + failed) + " sockets");
+            return;
+        }
+
+        try
+        {
+            listener.onComplete(delivered, dropped, failed);
+        }
+        catch (RuntimeException e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Exception thrown by broadcast listener", e);
+        }
+    }
+
+    private static void write(Iterable<Socket> recipients, Socket sender, BroadcastFrame frame,
+                              AtomicLong volatileDrops, Tally tally)
+    {
+        int delivered = 0, dropped = 0, failed = 0, skipped = 0;
+        for (Socket s : recipients)
+        {
+            if (s == sender)
+                continue;
+            if (volatileDrops != null && !s.isWritable())
+            {
+                skipped++;
+                continue;
+            }
+            try
+            {
+                s.emit(frame);
+                delivered++;
+            }
+            catch (SocketIOClosedException e)
+            {
+                dropped++;
+            }
+            catch (SocketIOException | RuntimeException e)
+            {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, "Cannot write broadcast to socket " + s.getId(), e);
+                failed++;
+            }
+        }
+        if (skipped > 0)
+            volatileDrops.addAndGet(skipped);
+        tally.done(delivered, dropped + skipped, failed);
+    }
+
+    /**
+     * Counts the results of the partitions, the last one to finish tells the listener
+     */
+    static final class Tally
+    {
+        private final BroadcastListener listener;
+        private final AtomicInteger     pending;
+
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final AtomicInteger dropped   = new AtomicInteger();
+        private final AtomicInteger failed    = new AtomicInteger();
+
+        Tally(BroadcastListener listener, int parts)
+        {
+            this.listener = listener;
+            this.pending = new AtomicInteger(parts);
+        }
+
+        void done(int delivered, int dropped, int failed)
+        {
+            this.delivered.addAndGet(delivered);
+            this.dropped.addAndGet(dropped);
+            this.failed.addAndGet(failed);
+
+            if (pending.decrementAndGet() > 0)
+                return;
+
+            complete(listener, this.delivered.get(), this.dropped.get(), this.failed.get());
+        }
+    }
+}
@@ -24,19 +24,35 @@ package com.codeminders.socketio.server;
 
 import com.codeminders.socketio.common.DisconnectReason;
 import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+import com.codeminders.socketio.protocol.SocketIOPacket;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Alexander Sova (bird@codeminders.com)
  */
 public class Namespace implements Outbound, ConnectionListener, DisconnectListener
 {
-    private String                   id;
+    private static final Logger LOGGER = Logger.getLogger(Namespace.class.getName());
 
-    private List<Socket>             sockets             = Collections.synchronizedList(new LinkedList<Socket>());
-    private List<ConnectionListener> connectionListeners = Collections.synchronizedList(new LinkedList<ConnectionListener>());
-    private Map<String, Room>        rooms               = Collections.synchronizedMap(new LinkedHashMap<String, Room>());
+    private String                         id;
+
+    private ConcurrentMap<String, Socket>  sockets             = new ConcurrentHashMap<>(); // socket id, socket
+    private List<ConnectionListener>       connectionListeners = Collections.synchronizedList(new LinkedList<ConnectionListener>());
+    private ConcurrentMap<String, Members> rooms               = new ConcurrentHashMap<>(); // room id, members
+    private final AtomicInteger            roomMembers         = new AtomicInteger();
+    private final AtomicLong               volatileDrops       = new AtomicLong();
+
+    private volatile Executor executor;
 
     Namespace(String id)
     {
@@ -48,23 +64,181 @@ public class Namespace implements Outbound, ConnectionListener, DisconnectListen
         return id;
     }
 
+    /**
+     * @return executor event listeners of the namespace are called on, null if they are called
+     * on the session's dispatch thread
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Sets executor to call event listeners of the namespace sockets on, so a slow listener
+     * does not hold the session's packets, pings included.
+     * Events of a socket are still passed to the listeners one at a time in the order they were received,
+     * the ACK is sent when the listener returns. Sockets connected before the call keep the previous executor.
+     *
+     * @param executor application executor, null to call the listeners on the session's dispatch thread
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
     @Override
     public void emit(String name, Object... args)
     {
-        for(Socket s : sockets)
+        try
         {
-            try
-            {
-                s.emit(name, args);
-            }
-            catch (SocketIOException e)
+            broadcast(sockets.values(), null, null, false, name, args);
+        }
+        catch (SocketIOException e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Cannot encode event " + name + " for namespace " + id, e);
+        }
+    }
+
+    /**
+     * Emits an event to all the sockets of the namespace and tells the listener when it is written.
+     *
+     * @param name     event name
+     * @param args     event arguments
+     * @param listener told how many sockets the event was delivered to
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    public void emit(String name, Object[] args, BroadcastListener listener) throws SocketIOException
+    {
+        broadcast(sockets.values(), null, listener, false, name, args);
+    }
+
+    /**
+     * Emits an event to the sockets of the namespace which could take it right away,
+     * see {@link Socket#emitVolatile(String, Object...)}.
+     *
+     * @param name event name
+     * @param args event arguments
+     */
+    public void emitVolatile(String name, Object... args)
+    {
+        try
+        {
+            broadcast(sockets.values(), null, null, true, name, args);
+        }
+        catch (SocketIOException e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Cannot encode event " + name + " for namespace " + id, e);
+        }
+    }
+
+    /**
+     * @return number of times a volatile event was not sent to a socket of the namespace
+     * because its connection was not writable
+     */
+    public long getVolatileDropCount()
+    {
+        return volatileDrops.get();
+    }
+
+    void countVolatileDrop()
+    {
+        volatileDrops.incrementAndGet();
+    }
+
+    /**
+     * Emits an event to all the recipients but the sender.
+     * The event is encoded only once and the same frame is written to every connection.
+     *
+     * @param recipients sockets to send the event to
+     * @param sender socket to skip, could be null
+     * @param listener told when the event is written, could be null
+     * @param volatileEmit skip the recipients whose connection is not writable
+     * @param name event name
+     * @param args event arguments
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    void broadcast(Collection<Socket> recipients, Socket sender, BroadcastListener listener, boolean volatileEmit,
+                   String name, Object... args)
+            throws SocketIOException
+    {
+        if (args.length > 0 && args[args.length - 1] instanceof ACKListener)
+        {
+            // each socket needs its own packet id to match ACK, so the packet cannot be shared
+            int delivered = 0, dropped = 0, failed = 0;
+            for (Socket s : recipients)
             {
-                // ignore for now
-                // TODO: add getLastError method?
+                if (s == sender)
+                    continue;
+                if (volatileEmit && !s.isWritable())
+                {
+                    countVolatileDrop();
+                    dropped++;
+                    continue;
+                }
+                try
+                {
+                    s.emit(name, args);
+                    delivered++;
+                }
+                catch (SocketIOClosedException e)
+                {
+                    dropped++;
+                }
+                catch (SocketIOException e)
+                {
+                    failed++;
+                }
             }
+            FanOut.complete(listener, delivered, dropped, failed);
+            return;
         }
+
+        broadcast(recipients, sender, encode(SocketIOProtocol.createEventPacket(-1, id, name, args)), listener, volatileEmit);
     }
 
+    /*
+     * Encodes the packet with the parser used by all the connections, it is fixed once sessions exist.
+     */
+    BroadcastFrame encode(SocketIOPacket packet) throws SocketIOException
+    {
+        return SocketIOManager.getInstance().getParser().encodeFrame(packet);
+    }
+
+    /**
+     * Writes encoded event to all the recipients but the sender.
+     * Large broadcasts are written in parallel, see {@link SocketIOManager#setParallelBroadcast}.
+     *
+     * @param recipients sockets to send the event to
+     * @param sender socket to skip, could be null
+     * @param frame encoded event
+     * @param listener told when the event is written, could be null
+     * @param volatileEmit skip the recipients whose connection is not writable
+     */
+    void broadcast(Collection<Socket> recipients, Socket sender, BroadcastFrame frame, BroadcastListener listener,
+                   boolean volatileEmit)
+    {
+        AtomicLong drops = volatileEmit ? volatileDrops : null;
+        FanOut fanOut = SocketIOManager.getInstance().getFanOut();
+        if (fanOut != null && recipients.size() >= fanOut.getThreshold())
+            fanOut.submit(recipients, sender, frame, listener, drops);
+        else
+            FanOut.write(recipients, sender, frame, listener, drops);
+    }
+
+
+    /**
+     * Emits an event with arguments already converted to JSON to all the sockets of the namespace.
+     *
+     * @param name event name
+     * @param json event arguments as JSON array
+     * @throws SocketIOException if the event cannot be encoded
+     */
+    public void emitJSON(String name, String json) throws SocketIOException
+    {
+        broadcast(sockets.values(), null, encode(SocketIOProtocol.createJSONEventPacket(id, name, json)), null, false);
+    }
 
     public void on(ConnectionListener listener)
     {
@@ -83,7 +257,7 @@ public class Namespace implements Outbound, ConnectionListener, DisconnectListen
     {
         Socket socket = new Socket(session, this);
         socket.on(this);
-        sockets.add(socket);
+        sockets.put(socket.getId(), socket);
 
         return socket;
     }
@@ -91,25 +265,48 @@ public class Namespace implements Outbound, ConnectionListener, DisconnectListen
     @Override
     public void onDisconnect(Socket socket, DisconnectReason reason, String errorMessage)
     {
-        leaveAll(socket);
-        sockets.remove(socket);
+        socket.leaveRooms(true);
+        sockets.remove(socket.getId(), socket); // could be replaced by a new socket of the same session
+    }
+
+    /**
+     * Finds connected socket
+     *
+     * @param socketId socket id, see {@link Socket#getId()}
+     * @return socket or null if there is no such socket in the namespace
+     */
+    public Socket getSocket(String socketId)
+    {
+        return sockets.get(socketId);
+    }
+
+    /**
+     * @return number of connected sockets
+     */
+    public int getSocketCount()
+    {
+        return sockets.size();
+    }
+
+    /**
+     * @return connected sockets, weakly consistent view
+     */
+    Collection<Socket> getSockets()
+    {
+        return sockets.values();
     }
 
     /**
      * Finds or creates a room.
+     * The room exists while it has members: it is created when the first socket joins it
+     * and removed when the last one leaves.
      *
      * @param roomId room id
      * @return Room object
      */
     public Room room(String roomId)
     {
-        Room room = rooms.get(roomId);
-        if(room == null)
-        {
-            room = new Room(roomId);
-            rooms.put(roomId, room);
-        }
-        return room;
+        return new Room(this, roomId);
     }
 
     /**
@@ -123,12 +320,108 @@ public class Namespace implements Outbound, ConnectionListener, DisconnectListen
         return room(roomId);
     }
 
-    void leaveAll(Socket socket)
+    /**
+     * Starts a broadcast to several rooms, see {@link BroadcastOperator}
+     *
+     * @param roomId room to send the event to
+     * @return broadcast operator
+     */
+    public BroadcastOperator to(String roomId)
+    {
+        return new BroadcastOperator(this).to(roomId);
+    }
+
+    /**
+     * Starts a broadcast to all the sockets but the ones in the room, see {@link BroadcastOperator}
+     *
+     * @param roomId room to skip
+     * @return broadcast operator
+     */
+    public BroadcastOperator except(String roomId)
+    {
+        return new BroadcastOperator(this).except(roomId);
+    }
+
+    /**
+     * @return number of rooms with at least one socket
+     */
+    public int getRoomCount()
     {
-        for (Room room : rooms.values())
+        return rooms.size();
+    }
+
+    /**
+     * @return number of sockets in all the rooms, a socket is counted once for every room it is in
+     */
+    public int getRoomMemberCount()
+    {
+        return roomMembers.get();
+    }
+
+    /**
+     * Members of a room. Empty members are removed from the namespace and never used again.
+     */
+    private static final class Members
+    {
+        final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        boolean           removed; // guarded by this
+    }
+
+    /**
+     * @return sockets in the room, weakly consistent view
+     */
+    Set<Socket> members(String roomId)
+    {
+        Members members = rooms.get(roomId);
+        return members != null ? members.sockets : Collections.<Socket>emptySet();
+    }
+
+    /*
+     * Room membership is changed by the socket, so it is in sync with the socket's room index.
+     */
+    void join(String roomId, Socket socket)
+    {
+        while (true)
+        {
+            Members members = rooms.get(roomId);
+            if (members == null)
+            {
+                Members created = new Members();
+                members = rooms.putIfAbsent(roomId, created);
+                if (members == null)
+                    members = created;
+            }
+
+            synchronized (members)
+            {
+                if (!members.removed)
+                {
+                    if (members.sockets.add(socket))
+                        roomMembers.incrementAndGet();
+                    return;
+                }
+            }
+            // the last member has just left, the next attempt gets a new room
+        }
+    }
+
+    void leave(String roomId, Socket socket)
+    {
+        Members members = rooms.get(roomId);
+        if (members == null)
+            return;
+
+        synchronized (members)
         {
-            if(room.contains(socket))
-                room.leave(socket);
+            if (!members.sockets.remove(socket))
+                return;
+
+            roomMembers.decrementAndGet();
+            if (members.sockets.isEmpty())
+            {
+                members.removed = true;
+                rooms.remove(roomId, members);
+            }
         }
     }
 }
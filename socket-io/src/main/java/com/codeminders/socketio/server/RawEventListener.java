@@ -0,0 +1,43 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+/**
+ * Listener receiving event arguments as raw JSON.
+ * <p>
+ * The arguments are not parsed, so this listener is the cheapest way to relay events
+ * to other sockets, see {@link Room#broadcastJSON(Socket, String, String)}.
+ * Binary events are not delivered to raw listeners since their attachments cannot be represented in JSON.
+ */
+public interface RawEventListener
+{
+    /**
+     * Called upon incoming event
+     *
+     * @param name event name
+     * @param json event arguments as JSON array
+     * @param ackRequested true if client requested an acknowledgement
+     * @return Object to send back to the caller as an acknowledgement, null if no ack to be sent
+     */
+    Object onEvent(String name, String json, boolean ackRequested);
+}
@@ -23,18 +23,20 @@
 package com.codeminders.socketio.server;
 
 import com.codeminders.socketio.common.SocketIOException;
-
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
 
 /**
+ * Room of a namespace. The object only refers to the room by id, so it could be kept
+ * while the room itself exists only as long as it has members.
+ *
  * @author Alexander Sova (bird@codeminders.com)
  */
 public class Room implements Outbound {
-	private String id;
-	private Deque<Socket> sockets = new ConcurrentLinkedDeque<>();
+	private final Namespace namespace;
+	private final String id;
 
-	Room(String id) {
+	Room(Namespace namespace, String id) {
+		this.namespace = namespace;
 		this.id = id;
 	}
 
@@ -44,47 +46,109 @@ public class Room implements Outbound {
 
 	@Override
 	public void emit(String name, Object... args) throws SocketIOException {
-		for (Socket s : sockets) {
-			try {
-				s.emit(name, args);
-			} catch (SocketIOException e) {
-				// ignore for now
-				// TODO: add getLastError method?
-			}
-		}
+		namespace.broadcast(namespace.members(id), null, null, false, name, args);
+	}
+
+	/**
+	 * Emits an event to the sockets in the room which could take it right away,
+	 * see {@link Socket#emitVolatile(String, Object...)}.
+	 *
+	 * @param name event name
+	 * @param args event arguments
+	 * @throws SocketIOException if the event cannot be encoded
+	 */
+	public void emitVolatile(String name, Object... args) throws SocketIOException {
+		namespace.broadcast(namespace.members(id), null, null, true, name, args);
+	}
+
+	/**
+	 * Emits an event to every socket in the room and tells the listener when it is written.
+	 *
+	 * @param name event name
+	 * @param args event arguments
+	 * @param listener told how many sockets the event was delivered to
+	 * @throws SocketIOException if the event cannot be encoded
+	 */
+	public void emit(String name, Object[] args, BroadcastListener listener) throws SocketIOException {
+		namespace.broadcast(namespace.members(id), null, listener, false, name, args);
 	}
 
 	public void join(Socket socket) {
-		sockets.add(socket);
+		checkNamespace(socket);
+		socket.join(id);
 	}
 
 	public void leave(Socket socket) {
-		sockets.remove(socket);
+		checkNamespace(socket);
+		socket.leave(id);
 	}
 
 	public boolean contains(Socket socket) {
-		return sockets.contains(socket);
+		return namespace.members(id).contains(socket);
 	}
 
+	/**
+	 * @return number of sockets in the room
+	 */
+	public int getSocketCount() {
+		return namespace.members(id).size();
+	}
+
+	private void checkNamespace(Socket socket) {
+		if (!namespace.getId().equals(socket.getNamespace()))
+			throw new IllegalArgumentException("Socket is connected to another namespace: " + socket.getNamespace());
+	}
+
+	/**
+	 * Emits an event to every socket in the room except the sender.
+	 * The event is encoded once for all the recipients.
+	 *
+	 * @param sender socket to skip
+	 * @param name event name
+	 * @param args event arguments
+	 * @throws SocketIOException if the event cannot be encoded
+	 */
 	public void broadcast(Socket sender, String name, Object... args) throws SocketIOException {
-		for (Socket socket : sockets) {
-			if (socket != sender) {
-				try {
-					socket.emit(name, args);
-				} catch (SocketIOException e) {
-					e.printStackTrace();
-					// ignore for now
-					// TODO: add getLastError method?
-				}
-			}else{
-//				try {
-//					socket.emit(name, args);
-//				} catch (SocketIOException e) {
-//					e.printStackTrace();
-//					// ignore for now
-//					// TODO: add getLastError method?
-//				}
-			}
-		}
+		namespace.broadcast(namespace.members(id), sender, null, false, name, args);
+	}
+
+	/**
+	 * Emits an event with arguments already converted to JSON to every socket in the room.
+	 *
+	 * @param name event name
+	 * @param json event arguments as JSON array
+	 * @throws SocketIOException if the event cannot be encoded
+	 */
+	public void emitJSON(String name, String json) throws SocketIOException {
+		broadcastJSON(null, name, json);
+	}
+
+	/**
+	 * Relays an event to every socket in the room except the sender.
+	 * The arguments are neither parsed nor serialized, see {@link RawEventListener}.
+	 *
+	 * @param sender socket to skip
+	 * @param name event name
+	 * @param json event arguments as JSON array
+	 * @throws SocketIOException if the event cannot be encoded
+	 */
+	public void broadcastJSON(Socket sender, String name, String json) throws SocketIOException {
+		namespace.broadcast(namespace.members(id), sender, namespace.encode(SocketIOProtocol.createJSONEventPacket(namespace.getId(), name, json)), null, false);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof Room))
+			return false;
+
+		Room room = (Room) o;
+		return namespace == room.namespace && id.equals(room.id);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * namespace.hashCode() + id.hashCode();
 	}
 }
@@ -0,0 +1,109 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mailbox running its tasks one at a time, in the order they were submitted, on a shared pool.
+ * <p>
+ * The mailbox occupies at most one pool thread and only while it has tasks to run.
+ * After {@link #BATCH} tasks the thread is given back to the pool so a busy mailbox
+ * does not starve the others. Every task happens-before the next one.
+ */
+final class SerialExecutor implements Executor, Runnable
+{
+    private static final Logger LOGGER = Logger.getLogger(SerialExecutor.class.getName());
+
+    static final int BATCH = 64;
+
+    private final Executor        pool;
+    private final Queue<Runnable> tasks     = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean   scheduled = new AtomicBoolean();
+
+    SerialExecutor(Executor pool)
+    {
+        assert (pool != null);
+
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        tasks.add(task);
+        schedule();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            for (int i = 0; i < BATCH; i++)
+            {
+                Runnable task = tasks.poll();
+                if (task == null)
+                    break;
+
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    if (LOGGER.isLoggable(Level.WARNING))
+                        LOGGER.log(Level.WARNING, "Task failed", e);
+                }
+            }
+        }
+        finally
+        {
+            scheduled.set(false);
+            if (!tasks.isEmpty())
+                schedule(); // the rest or the tasks added while the flag was still set
+        }
+    }
+
+    private void schedule()
+    {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+
+        try
+        {
+            pool.execute(this);
+        }
+        catch (RejectedExecutionException e)
+        {
+            scheduled.set(false);
+            throw e;
+        }
+    }
+}
@@ -69,14 +69,28 @@ public final class ServletBasedConfig implements Config
     public int getInt(String param, int def)
     {
         String v = getString(param);
-        return v == null ? def : Integer.parseInt(v);
+        try
+        {
+            return v == null ? def : Integer.parseInt(v.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Init parameter " + param + " should be an integer, got \"" + v + "\"", e);
+        }
     }
 
     @Override
     public long getLong(String param, long def)
     {
         String v = getString(param);
-        return v == null ? def : Long.parseLong(v);
+        try
+        {
+            return v == null ? def : Long.parseLong(v.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Init parameter " + param + " should be an integer, got \"" + v + "\"", e);
+        }
     }
 
     @Override
@@ -30,18 +30,18 @@ import com.codeminders.socketio.protocol.*;
 import com.codeminders.socketio.common.ConnectionState;
 import com.codeminders.socketio.common.DisconnectReason;
 
-import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-//TODO: this class is not thread-safe at all
-
 /**
  * SocketIO session.
  * <p>
- * This implementation is not thread-safe.
+ * Incoming packets, timeouts and disconnects are processed one at a time on the session's mailbox,
+ * see {@link SocketIOManager#setDispatchExecutor}. Sockets and the session state are only changed there,
+ * so no locking is needed. Packets could be sent from any thread.
  *
  * @author Alexander Sova (bird@codeminders.com)
  */
@@ -53,21 +53,24 @@ public class Session implements DisconnectListener
     private final String          sessionId;
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
 
-    private Map<String, Socket> sockets = new LinkedHashMap<>(); // namespace, socket
+    private final Map<String, Socket> sockets = new LinkedHashMap<>(); // namespace, socket. mailbox only
+
+    private volatile TransportConnection activeConnection;
+    private volatile ConnectionState     state = ConnectionState.CONNECTING;
 
-    private TransportConnection activeConnection;
-    private ConnectionState  state            = ConnectionState.CONNECTING;
+    private volatile DisconnectReason disconnectReason = DisconnectReason.UNKNOWN;
+    private volatile String           disconnectMessage;
 
-    private DisconnectReason disconnectReason = DisconnectReason.UNKNOWN;
-    private String disconnectMessage;
+    private long                          timeout;
+    private volatile TimeoutWheel.Timeout timeoutTask;
+    private volatile boolean              timedOut;
 
-    private long      timeout;
-    private Future<?> timeoutTask;
-    private boolean   timedOut;
+    private final SerialExecutor mailbox;
+    private final AtomicBoolean  connectQueued = new AtomicBoolean();
 
-    private BinaryPacket              binaryPacket;
-    private int                       packet_id     = 0; // packet id. used for requesting ACK
-    private Map<Integer, ACKListener> ack_listeners = new LinkedHashMap<>(); // packetid, listener
+    private final PacketParser  parser;
+    private final PacketDecoder decoder;
+    private final ACKRegistry   acks; // listeners waiting for ACK
 
     Session(SocketIOManager socketIOManager, String sessionId)
     {
@@ -75,6 +78,10 @@ public class Session implements DisconnectListener
 
         this.socketIOManager = socketIOManager;
         this.sessionId = sessionId;
+        this.parser = socketIOManager.useParser();
+        this.decoder = parser.createDecoder();
+        this.acks = new ACKRegistry(socketIOManager.getMaxPendingACKs());
+        this.mailbox = new SerialExecutor(socketIOManager.getDispatchExecutor());
     }
 
     public Socket createSocket(String ns)
@@ -114,27 +121,55 @@ public class Session implements DisconnectListener
         return activeConnection;
     }
 
+    /**
+     * @return parser used to encode and decode packets of this session
+     */
+    public PacketParser getParser()
+    {
+        return parser;
+    }
+
+    /**
+     * Postpones session timeout. Called on every incoming packet, so it is just a timestamp update
+     * unless the timeout has to be armed.
+     */
     public void resetTimeout()
     {
-        clearTimeout();
-        if (timedOut || timeout == 0)
+        TimeoutWheel.Timeout task = timeoutTask;
+        if (task != null)
+        {
+            task.touch();
             return;
+        }
 
-        timeoutTask = socketIOManager.executor.schedule(new Runnable()
+        synchronized (this)
         {
-            @Override
-            public void run()
+            if (timedOut || timeout == 0 || timeoutTask != null)
+                return;
+
+            timeoutTask = socketIOManager.timeouts.schedule(new Runnable()
             {
-                Session.this.onTimeout();
-            }
-        }, timeout, TimeUnit.MILLISECONDS);
+                @Override
+                public void run()
+                {
+                    mailbox.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            onTimeout();
+                        }
+                    });
+                }
+            }, timeout);
+        }
     }
 
-    public void clearTimeout()
+    public synchronized void clearTimeout()
     {
         if (timeoutTask != null)
         {
-            timeoutTask.cancel(false);
+            timeoutTask.cancel();
             timeoutTask = null;
         }
     }
@@ -149,28 +184,49 @@ public class Session implements DisconnectListener
         return timeout;
     }
 
-    private void onBinary(InputStream is)
-            throws SocketIOProtocolException
+    /**
+     * @return true if the handshake is not answered yet, so the transport has to send it and call {@link #onConnect}
+     */
+    public boolean needsHandshake()
     {
-        if (binaryPacket == null)
-            throw new SocketIOProtocolException("Unexpected binary object");
+        return state == ConnectionState.CONNECTING && !connectQueued.get();
+    }
 
-        SocketIOProtocol.insertBinaryObject(binaryPacket, is);
-        binaryPacket.addAttachment(is); //keeping copy of all attachments in attachments list
-        if (binaryPacket.isComplete())
-        {
-            if (binaryPacket.getType() == SocketIOPacket.Type.BINARY_EVENT)
-                onEvent((EventPacket) binaryPacket);
-            else if (binaryPacket.getType() == SocketIOPacket.Type.BINARY_ACK)
-                onACK((ACKPacket) binaryPacket);
+    /**
+     * Connects the session to the default namespace on the session's mailbox. Does not wait for it,
+     * the caller could be a container thread. Packets received meanwhile are processed after the connect.
+     * Only the first call has effect.
+     *
+     * @param connection transport connection the handshake was sent to
+     */
+    public void onConnect(final TransportConnection connection)
+    {
+        assert (connection != null);
 
-            binaryPacket = null;
-        }
+        if (!connectQueued.compareAndSet(false, true))
+            return;
+
+        mailbox.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    connect(connection);
+                }
+                catch (SocketIOException e)
+                {
+                    if (LOGGER.isLoggable(Level.WARNING))
+                        LOGGER.log(Level.WARNING, "Session[" + sessionId + "]: cannot connect", e);
+                    closeConnection(DisconnectReason.CONNECT_FAILED, connection);
+                }
+            }
+        });
     }
 
-    public void onConnect(TransportConnection connection) throws SocketIOException
+    private void connect(TransportConnection connection) throws SocketIOException
     {
-        assert (connection != null);
         assert (this.activeConnection == null);
 
         this.activeConnection = connection;
@@ -215,13 +271,21 @@ public class Session implements DisconnectListener
 
     /**
      * callback to be called by transport activeConnection socket is closed.
+     * Disconnect is processed on the session's mailbox after the packets received before.
      */
     public void onShutdown()
     {
-        if (state == ConnectionState.CLOSING)
-            onDisconnect(disconnectReason);
-        else
-            onDisconnect(DisconnectReason.ERROR);
+        mailbox.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (state == ConnectionState.CLOSING)
+                    onDisconnect(disconnectReason);
+                else
+                    onDisconnect(DisconnectReason.ERROR);
+            }
+        });
     }
 
     /**
@@ -240,6 +304,9 @@ public class Session implements DisconnectListener
 
         clearTimeout();
 
+        for (ACKRegistry.Pending pending : acks.clear())
+            onACKFailure(pending, ACKFailureListener.Reason.DISCONNECT);
+
         // taking copy of sockets because
         // session will be modifying the collection while iterating
         for (Object o : sockets.values().toArray())
@@ -263,7 +330,26 @@ public class Session implements DisconnectListener
         }
     }
 
-    public void onPacket(EngineIOPacket packet, TransportConnection connection)
+    /**
+     * Queues the packet to the session's mailbox. Packet data should not depend on the caller,
+     * the packet is processed after the method returns.
+     *
+     * @param packet     received packet
+     * @param connection transport connection the packet was received from
+     */
+    public void onPacket(final EngineIOPacket packet, final TransportConnection connection)
+    {
+        mailbox.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                dispatch(packet, connection);
+            }
+        });
+    }
+
+    private void dispatch(EngineIOPacket packet, TransportConnection connection)
     {
         switch (packet.getType())
         {
@@ -276,10 +362,9 @@ public class Session implements DisconnectListener
                 resetTimeout();
                 try
                 {
-                    if (packet.getTextData() != null)
-                        onPacket(SocketIOProtocol.decode(packet.getTextData()));
-                    else if (packet.getBinaryData() != null)
-                        onBinary(packet.getBinaryData());
+                    SocketIOPacket sioPacket = decoder.decode(packet);
+                    if (sioPacket != null)
+                        onPacket(sioPacket);
                 }
                 catch (SocketIOProtocolException e)
                 {
@@ -350,16 +435,13 @@ public class Session implements DisconnectListener
                 return;
 
             case EVENT:
+            case BINARY_EVENT:
                 onEvent((EventPacket) packet);
                 return;
 
             case ACK:
-                onACK((ACKPacket) packet);
-                return;
-
             case BINARY_ACK:
-            case BINARY_EVENT:
-                binaryPacket = (BinaryPacket) packet;
+                onACK((ACKPacket) packet);
                 return;
 
             default:
@@ -382,9 +464,10 @@ public class Session implements DisconnectListener
         }
     }
 
-    private void onEvent(EventPacket packet)
+    private void onEvent(final EventPacket packet)
     {
-        if (state != ConnectionState.CONNECTED)
+        // the packets received before the transport was closed are still in the mailbox, delivering them
+        if (state != ConnectionState.CONNECTED && state != ConnectionState.CLOSING)
             return;
 
         try
@@ -396,7 +479,7 @@ public class Session implements DisconnectListener
                 return;
             }
 
-            Socket socket = sockets.get(ns.getId());
+            final Socket socket = sockets.get(ns.getId());
             if (socket == null)
             {
                 activeConnection.send(SocketIOProtocol.createErrorPacket(packet.getNamespace(),
@@ -404,12 +487,42 @@ public class Session implements DisconnectListener
                 return;
             }
 
-            Object ack = socket.onEvent(packet.getName(), packet.getArgs(), packet.getId() != -1);
+            Executor executor = socket.getEventExecutor();
+            if (executor == null)
+            {
+                onEvent(socket, packet);
+                return;
+            }
+
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    onEvent(socket, packet);
+                }
+            });
+        }
+        catch (Throwable e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Session[" + sessionId + "]: Cannot dispatch event", e);
+        }
+    }
+
+    /**
+     * Calls event listener of the socket and sends ACK back if requested
+     */
+    private void onEvent(Socket socket, EventPacket packet)
+    {
+        try
+        {
+            Object ack = socket.onEvent(packet);
 
             if (packet.getId() != -1 && ack != null)
             {
                 Object[] args;
-                if (ack instanceof Objects[])
+                if (ack instanceof Object[])
                     args = (Object[]) ack;
                 else
                     args = new Object[]{ack};
@@ -426,15 +539,17 @@ public class Session implements DisconnectListener
 
     private void onACK(ACKPacket packet)
     {
-        if (state != ConnectionState.CONNECTED)
+        if (state != ConnectionState.CONNECTED && state != ConnectionState.CLOSING)
             return;
 
         try
         {
-            ACKListener listener = ack_listeners.get(packet.getId());
-            unsubscribeACK(packet.getId());
-            if (listener != null)
-                listener.onACK(packet.getArgs());
+            ACKRegistry.Pending pending = acks.remove(packet.getId(), null);
+            if (pending != null)
+            {
+                cancelTimeout(pending);
+                pending.listener.onACK(packet.getArgs());
+            }
         }
         catch (Throwable e)
         {
@@ -443,6 +558,30 @@ public class Session implements DisconnectListener
         }
     }
 
+    private void onACKFailure(ACKRegistry.Pending pending, ACKFailureListener.Reason reason)
+    {
+        cancelTimeout(pending);
+        if (!(pending.listener instanceof ACKFailureListener))
+            return;
+
+        try
+        {
+            ((ACKFailureListener) pending.listener).onACKFailure(reason);
+        }
+        catch (Throwable e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Session[" + sessionId + "]: Exception thrown by ACK listener", e);
+        }
+    }
+
+    private static void cancelTimeout(ACKRegistry.Pending pending)
+    {
+        TimeoutWheel.Timeout timeout = pending.timeout;
+        if (timeout != null)
+            timeout.cancel();
+    }
+
     private void upgradeConnection(TransportConnection connection)
     {
         if (LOGGER.isLoggable(Level.FINE))
@@ -461,20 +600,67 @@ public class Session implements DisconnectListener
         connection.abort(); //this call should trigger onShutdown() eventually
     }
 
-    public synchronized int getNewPacketId()
+    public int getNewPacketId()
+    {
+        return acks.nextId();
+    }
+
+    /**
+     * Registers ACK listener under the given packet id. The listener never expires.
+     *
+     * @throws SocketIOException if too many ACKs are pending for the session
+     * @deprecated use {@link #subscribeACK(ACKListener, long)}, it picks the packet id and can expire the listener
+     */
+    @Deprecated
+    public void subscribeACK(int packet_id, ACKListener ack_listener) throws SocketIOException
     {
-        return packet_id++;
+        if (!acks.put(packet_id, new ACKRegistry.Pending(ack_listener)))
+            throw new SocketIOException("Too many ACKs pending");
     }
 
-    //TODO: what if ACK never comes? We will have a memory leak. Need to cleanup the list or fail on timeout?
-    public void subscribeACK(int packet_id, ACKListener ack_listener)
+    /**
+     * Registers listener of ACK for a packet about to be sent.
+     *
+     * @param listener ACK listener. {@link ACKFailureListener} is told when the ACK times out
+     *                 or the session is closed before the ACK arrives
+     * @param timeout  ms to wait for the ACK, 0 to wait until the session is closed
+     * @return packet id to request the ACK with
+     * @throws SocketIOException if too many ACKs are pending for the session
+     */
+    public int subscribeACK(ACKListener listener, long timeout) throws SocketIOException
     {
-        ack_listeners.put(packet_id, ack_listener);
+        final ACKRegistry.Pending pending = new ACKRegistry.Pending(listener);
+        final int id = acks.add(pending);
+        if (id < 0)
+            throw new SocketIOException("Too many ACKs pending");
+
+        if (timeout > 0)
+        {
+            pending.timeout = socketIOManager.timeouts.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mailbox.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (acks.remove(id, pending) != null)
+                                onACKFailure(pending, ACKFailureListener.Reason.TIMEOUT);
+                        }
+                    });
+                }
+            }, timeout);
+        }
+        return id;
     }
 
     public void unsubscribeACK(int packet_id)
     {
-        ack_listeners.remove(packet_id);
+        ACKRegistry.Pending pending = acks.remove(packet_id, null);
+        if (pending != null)
+            cancelTimeout(pending);
     }
 
     @Override
@@ -24,25 +24,46 @@ package com.codeminders.socketio.server;
 
 import com.codeminders.socketio.common.DisconnectReason;
 import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+import com.codeminders.socketio.protocol.EventPacket;
+import com.codeminders.socketio.protocol.SocketIOPacket;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * @author Alexander Sova (bird@codeminders.com)
  */
 public class Socket implements Outbound, DisconnectListener, EventListener
 {
-    private List<DisconnectListener>   disconnectListeners = new LinkedList<>();
-    private Map<String, EventListener> eventListeners      = new LinkedHashMap<>();
+    // listeners are added from any thread and called on the dispatch threads
+    private final List<DisconnectListener>        disconnectListeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Listener> eventListeners      = new ConcurrentHashMap<>();
 
     private Session session; // Socket is Session + Namespace
     private Namespace namespace;
+    private final String id;
+
+    private final Set<String> rooms = new HashSet<>(); // ids of the rooms the socket is in, guarded by itself
+    private boolean           left; // disconnected, no more rooms to join
+
+    private final Executor eventExecutor; // null to call event listeners on the session's mailbox
 
     public Socket(Session session, Namespace namespace)
     {
         this.session   = session;
         this.namespace = namespace;
+        this.id        = session.getSessionId() + namespace.getId();
+
+        Executor executor = namespace.getExecutor();
+        this.eventExecutor = executor == null ? null : new SerialExecutor(executor);
     }
 
     public String getNamespace()
@@ -58,7 +79,92 @@ public class Socket implements Outbound, DisconnectListener, EventListener
      */
     public void on(String eventName, EventListener listener)
     {
-        eventListeners.put(eventName, listener);
+        eventListeners.put(eventName, new Listener(listener, null, null, null));
+    }
+
+    /**
+     * Set listener for a named event with arguments bound to the given classes.
+     * Only one listener per event is allowed.
+     * Arguments of text events are bound straight from the packet JSON, binary and MessagePack events
+     * are decoded first, see {@link EventPacket#getArgs(JavaType[])}.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     * @param argTypes expected classes of the event arguments, extra arguments are passed as generic objects
+     */
+    public void on(String eventName, EventListener listener, Class<?>... argTypes)
+    {
+        on(eventName, listener, toJavaTypes(argTypes));
+    }
+
+    /**
+     * Set listener for a named event with arguments bound to the given types.
+     * Use this variant for generic types like {@code List<Message>}.
+     * Only one listener per event is allowed.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     * @param argTypes expected types of the event arguments, extra arguments are passed as generic objects
+     */
+    public void on(String eventName, EventListener listener, JavaType... argTypes)
+    {
+        eventListeners.put(eventName, new Listener(listener, null, null, argTypes.clone()));
+    }
+
+    /**
+     * Set listener receiving event arguments as raw JSON. Only one listener per event is allowed.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     */
+    public void on(String eventName, RawEventListener listener)
+    {
+        eventListeners.put(eventName, new Listener(null, listener, null, null));
+    }
+
+    /**
+     * Set listener acknowledging the event asynchronously. Only one listener per event is allowed.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     */
+    public void on(String eventName, AsyncEventListener listener)
+    {
+        eventListeners.put(eventName, new Listener(null, null, listener, null));
+    }
+
+    /**
+     * Set listener acknowledging the event asynchronously with arguments bound to the given classes.
+     * Only one listener per event is allowed.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     * @param argTypes expected classes of the event arguments, extra arguments are passed as generic objects
+     */
+    public void on(String eventName, AsyncEventListener listener, Class<?>... argTypes)
+    {
+        on(eventName, listener, toJavaTypes(argTypes));
+    }
+
+    /**
+     * Set listener acknowledging the event asynchronously with arguments bound to the given types.
+     * Only one listener per event is allowed.
+     *
+     * @param eventName event name
+     * @param listener event listener
+     * @param argTypes expected types of the event arguments, extra arguments are passed as generic objects
+     */
+    public void on(String eventName, AsyncEventListener listener, JavaType... argTypes)
+    {
+        eventListeners.put(eventName, new Listener(null, null, listener, argTypes.clone()));
+    }
+
+    private static JavaType[] toJavaTypes(Class<?>[] classes)
+    {
+        JavaType[] types = new JavaType[classes.length];
+        for (int i = 0; i < classes.length; i++)
+            types[i] = TypeFactory.defaultInstance().constructType(classes[i]);
+        return types;
     }
 
     /**
@@ -77,6 +183,73 @@ public class Socket implements Outbound, DisconnectListener, EventListener
         getSession().getConnection().emit(getNamespace(), name, args);
     }
 
+    /**
+     * Emits an event only if the connection could take it right away: a polling client has a poll
+     * waiting for data, a websocket send queue is below "sendQueueWatermark", or, without the send queue,
+     * no other message is being written to the websocket.
+     * Otherwise the event is dropped and counted by {@link Namespace#getVolatileDropCount()}.
+     * Use it for frequent updates where a newer one replaces a lost one.
+     *
+     * @param name event name
+     * @param args event arguments
+     * @return true if the event was sent, false if it was dropped
+     * @throws SocketIOException if the event cannot be encoded or sent
+     */
+    public boolean emitVolatile(String name, Object... args) throws SocketIOException
+    {
+        if (!isWritable())
+        {
+            namespace.countVolatileDrop();
+            return false;
+        }
+        emit(name, args);
+        return true;
+    }
+
+    boolean isWritable()
+    {
+        TransportConnection connection = getSession().getConnection();
+        return connection != null && connection.isWritable();
+    }
+
+    /**
+     * Emits an event requesting acknowledgement within the timeout.
+     * Use {@link ACKFailureListener} to be told when the ACK does not arrive.
+     *
+     * @param name     event name
+     * @param args     event arguments
+     * @param listener ACK listener
+     * @param timeout  ms to wait for the ACK, 0 to wait until the socket is closed
+     * @throws SocketIOException if IO error happens, socket is closed or too many ACKs are pending
+     */
+    public void emit(String name, Object[] args, ACKListener listener, long timeout) throws SocketIOException
+    {
+        getSession().getConnection().emit(getNamespace(), name, args, listener, timeout);
+    }
+
+    /**
+     * Emits pre-encoded event. Used to send the same event to many sockets without encoding it again.
+     *
+     * @param frame encoded event
+     * @throws SocketIOException if IO error happens or socket is closed
+     */
+    public void emit(BroadcastFrame frame) throws SocketIOException
+    {
+        getSession().getConnection().emit(frame);
+    }
+
+    /**
+     * Emits an event with arguments already converted to JSON, no parsing or serialization involved.
+     *
+     * @param name event name
+     * @param json event arguments as JSON array
+     * @throws SocketIOException if IO error happens or socket is closed
+     */
+    public void emitJSON(String name, String json) throws SocketIOException
+    {
+        emit(getSession().getParser().encodeFrame(SocketIOProtocol.createJSONEventPacket(getNamespace(), name, json)));
+    }
+
     /**
      * Adds disconnect listener
      *
@@ -102,26 +275,110 @@ public class Socket implements Outbound, DisconnectListener, EventListener
     @Override
     public Object onEvent(String name, Object[] args, boolean ackRequested)
     {
-        EventListener listener = eventListeners.get(name);
-        if(listener == null)
+        Listener listener = eventListeners.get(name);
+        if (listener == null || listener.listener == null)
             return null;
 
-        return listener.onEvent(name, args, ackRequested);
+        return listener.listener.onEvent(name, args, ackRequested);
+    }
+
+    /**
+     * @return executor running event listeners of this socket in order, null to run them on the session's mailbox
+     */
+    Executor getEventExecutor()
+    {
+        return eventExecutor;
+    }
+
+    /**
+     * Dispatches incoming event packet.
+     * Arguments of the packet are not parsed unless there is a listener for the event.
+     *
+     * @param packet incoming event
+     * @return Object to send back to the caller as an acknowledgement, null if no ack to be sent
+     * @throws SocketIOProtocolException if event arguments cannot be converted to JSON or bound to the listener types
+     */
+    Object onEvent(EventPacket packet) throws SocketIOProtocolException
+    {
+        String name = packet.getName();
+        boolean ackRequested = packet.getId() != -1;
+
+        Listener listener = eventListeners.get(name);
+        if (listener == null)
+            return null;
+
+        if (listener.rawListener != null)
+        {
+            if (packet.getType() != SocketIOPacket.Type.EVENT)
+                return null; // binary attachments cannot be passed as JSON
+
+            return listener.rawListener.onEvent(name, packet.getArgsJSON(), ackRequested);
+        }
+
+        JavaType[] types = listener.types;
+        Object[] args = types == null ? packet.getArgs() : packet.getArgs(types);
+
+        if (listener.asyncListener != null)
+        {
+            ACKReply ack = ackRequested ? new ACKReply(session, getNamespace(), packet.getId()) : null;
+            listener.asyncListener.onEvent(name, args, ack);
+            return null; // the listener sends ACK itself
+        }
+
+        return onEvent(name, args, ackRequested);
     }
 
     public void join(String room)
     {
-        namespace.in(room).join(this);
+        synchronized (rooms)
+        {
+            if (!left && rooms.add(room))
+                namespace.join(room, this);
+        }
     }
 
     public void leave(String room)
     {
-        namespace.in(room).leave(this);
+        synchronized (rooms)
+        {
+            if (rooms.remove(room))
+                namespace.leave(room, this);
+        }
     }
 
     public void leaveAll()
     {
-        namespace.leaveAll(this);
+        leaveRooms(false);
+    }
+
+    /**
+     * @return copy of the rooms the socket is in
+     */
+    public Set<Room> getRooms()
+    {
+        synchronized (rooms)
+        {
+            Set<Room> copy = new HashSet<>();
+            for (String room : rooms)
+                copy.add(namespace.room(room));
+            return copy;
+        }
+    }
+
+    /**
+     * Leaves all the rooms the socket is in.
+     *
+     * @param disconnected true if the socket is disconnected, then it will not join any room anymore
+     */
+    void leaveRooms(boolean disconnected)
+    {
+        synchronized (rooms)
+        {
+            left |= disconnected;
+            for (String room : rooms)
+                namespace.leave(room, this);
+            rooms.clear();
+        }
     }
 
     public void broadcast(String room, String name, Object... args)  throws SocketIOException
@@ -129,9 +386,20 @@ public class Socket implements Outbound, DisconnectListener, EventListener
         namespace.in(room).broadcast(this, name, args);
     }
 
+    /**
+     * Starts a broadcast to the sockets of the room but this one, see {@link BroadcastOperator}
+     *
+     * @param room room to send the event to
+     * @return broadcast operator
+     */
+    public BroadcastOperator to(String room)
+    {
+        return namespace.to(room).except(this);
+    }
+
     public String getId()
     {
-        return getSession().getSessionId() + getNamespace();
+        return id;
     }
 
     /**
@@ -141,4 +409,23 @@ public class Socket implements Outbound, DisconnectListener, EventListener
     {
         return getSession().getConnection().getRequest();
     }
+
+    /**
+     * The only listener of an event. Replaced as a whole, so a dispatch thread never sees half of a registration
+     */
+    private static final class Listener
+    {
+        final EventListener      listener;
+        final RawEventListener   rawListener;
+        final AsyncEventListener asyncListener;
+        final JavaType[]         types; // null to pass generic objects
+
+        Listener(EventListener listener, RawEventListener rawListener, AsyncEventListener asyncListener, JavaType[] types)
+        {
+            this.listener = listener;
+            this.rawListener = rawListener;
+            this.asyncListener = asyncListener;
+            this.types = types;
+        }
+    }
 }
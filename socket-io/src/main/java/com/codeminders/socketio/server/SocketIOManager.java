@@ -25,8 +25,12 @@
  */
 package com.codeminders.socketio.server;
 
+import com.codeminders.socketio.protocol.JSONPacketParser;
+import com.codeminders.socketio.protocol.PacketParser;
+
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class to manage Socket.IO sessions and namespaces.
@@ -49,11 +53,23 @@ public final class SocketIOManager
     private final Map<String, Namespace>         namespaces = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, Session> sessions   = new ConcurrentHashMap<>();
     private TransportProvider transportProvider;
+    private volatile PacketParser parser = new JSONPacketParser();
+    private boolean               parserInUse; // guarded by this, set by the first session
+    private volatile int          maxPendingACKs = Config.DEFAULT_MAX_PENDING_ACKS;
+    private volatile Executor     dispatchExecutor;
+    private volatile FanOut       fanOut; // null to write all the broadcasts on the caller's thread
 
     final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    final TimeoutWheel             timeouts = new TimeoutWheel(executor);
 
     private static SocketIOManager instance = new SocketIOManager();
 
+    // created on first use, so it is not started when another executor is set
+    private static final class DefaultDispatchPool
+    {
+        static final Executor POOL = newPool("socketio-dispatch-", Runtime.getRuntime().availableProcessors());
+    }
+
     private SocketIOManager() {
     }
 
@@ -135,4 +151,125 @@ public final class SocketIOManager
     {
         this.transportProvider = transportProvider;
     }
+
+    public PacketParser getParser()
+    {
+        return parser;
+    }
+
+    /**
+     * Sets packet parser. Broadcasts are encoded once for all the sessions, so the parser
+     * cannot be changed after the first session is created.
+     *
+     * @param parser packet parser
+     * @throws IllegalStateException if a session already uses another parser
+     */
+    public synchronized void setParser(PacketParser parser)
+    {
+        if (parserInUse && parser != this.parser)
+            throw new IllegalStateException("Packet parser cannot be changed after sessions are created");
+
+        this.parser = parser;
+    }
+
+    /*
+     * @return parser for a new session, it cannot be changed from now on
+     */
+    synchronized PacketParser useParser()
+    {
+        parserInUse = true;
+        return parser;
+    }
+
+    public int getMaxPendingACKs()
+    {
+        return maxPendingACKs;
+    }
+
+    /**
+     * Sets the limit of ACKs a session could wait for at the same time.
+     * Sessions created before the call keep the previous limit.
+     *
+     * @param maxPendingACKs max number of pending ACKs per session
+     */
+    public void setMaxPendingACKs(int maxPendingACKs)
+    {
+        this.maxPendingACKs = maxPendingACKs;
+    }
+
+    /**
+     * @return pool the sessions process their packets, timeouts and disconnects on
+     */
+    public Executor getDispatchExecutor()
+    {
+        Executor executor = dispatchExecutor;
+        return executor != null ? executor : DefaultDispatchPool.POOL;
+    }
+
+    /**
+     * Sets the pool sessions process their packets, timeouts and disconnects on.
+     * Each session uses at most one thread of the pool at a time.
+     * Sessions created before the call keep using the previous pool.
+     * By default the pool has a thread per available processor.
+     *
+     * @param executor dispatch pool
+     */
+    public void setDispatchExecutor(Executor executor)
+    {
+        this.dispatchExecutor = executor;
+    }
+
+    /**
+     * Replaces dispatch pool with a new one of the given size
+     *
+     * @param threads number of dispatch threads
+     */
+    public void setDispatchThreads(int threads)
+    {
+        setDispatchExecutor(newPool("socketio-dispatch-", threads));
+    }
+
+    FanOut getFanOut()
+    {
+        return fanOut;
+    }
+
+    /**
+     * Makes broadcasts to many sockets write to the connections in parallel.
+     * The caller does not wait for the writes, use {@link BroadcastListener} to know when they are done.
+     * A socket still gets the parallel broadcasts in the order they were made, but a small broadcast
+     * written on the caller's thread could get ahead of a large one made before it.
+     *
+     * @param threshold min number of recipients to write in parallel, 0 to write all the broadcasts
+     *                  on the caller's thread (default)
+     * @param executor  pool to write on, null to create one with a thread per available processor
+     */
+    public void setParallelBroadcast(int threshold, Executor executor)
+    {
+        if (threshold <= 0)
+        {
+            fanOut = null;
+            return;
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (executor == null)
+            executor = newPool("socketio-broadcast-", processors);
+        fanOut = new FanOut(executor, processors * 4, threshold);
+    }
+
+    private static ExecutorService newPool(final String name, int threads)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 }
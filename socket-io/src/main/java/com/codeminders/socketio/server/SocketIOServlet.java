@@ -26,6 +26,9 @@
 package com.codeminders.socketio.server;
 
 import com.codeminders.socketio.protocol.EngineIOProtocol;
+import com.codeminders.socketio.protocol.JSONPacketParser;
+import com.codeminders.socketio.protocol.MsgPackPacketParser;
+import com.codeminders.socketio.protocol.PacketParser;
 import com.codeminders.socketio.protocol.SocketIOProtocol;
 import com.google.common.io.ByteStreams;
 
@@ -76,15 +79,103 @@ public abstract class SocketIOServlet extends HttpServlet
         SocketIOManager.getInstance().setTransportProvider(transportProvider);
     }
 
+    /**
+     * Sets packet parser, overrides {@link Config#PARSER} init parameter.
+     * Both client and server have to use the same parser.
+     *
+     * @param parser packet parser
+     * @throws IllegalStateException if sessions were already created with another parser
+     */
+    public void setParser(PacketParser parser)
+    {
+        SocketIOManager.getInstance().setParser(parser);
+    }
+
     @Override
     public void init() throws ServletException
     {
         of(SocketIOProtocol.DEFAULT_NAMESPACE);
 
+        String parser = getInitParameter(Config.PARSER);
+        if (parser != null)
+            setParser(createParser(parser));
+
+        Integer maxPendingACKs = getIntParameter(Config.MAX_PENDING_ACKS, 1);
+        if (maxPendingACKs != null)
+            SocketIOManager.getInstance().setMaxPendingACKs(maxPendingACKs);
+
+        Integer dispatchThreads = getIntParameter(Config.DISPATCH_THREADS, 1);
+        if (dispatchThreads != null)
+            SocketIOManager.getInstance().setDispatchThreads(dispatchThreads);
+
+        Integer broadcastThreshold = getIntParameter(Config.PARALLEL_BROADCAST_THRESHOLD, 0);
+        if (broadcastThreshold != null)
+            SocketIOManager.getInstance().setParallelBroadcast(broadcastThreshold, null);
+
+        // read by the transports when a connection opens, checked now so a typo fails the deployment
+        for (String name : new String[]{Config.SEND_QUEUE_SIZE, Config.SEND_QUEUE_WATERMARK})
+            checkTransportParameter(name, 0);
+        checkTransportParameter(Config.MAX_POLL_RESPONSE_SIZE, 1);
+        checkTransportParameter(Config.SEND_STREAM_THREADS, 1);
+
         if (LOGGER.isLoggable(Level.INFO))
             LOGGER.info("Socket.IO server stated.");
     }
 
+    /**
+     * @param name init parameter name
+     * @param min  min accepted value
+     * @return value of the parameter or null if it is not set
+     * @throws ServletException if the value is not an integer from min to {@link Integer#MAX_VALUE}
+     */
+    private Integer getIntParameter(String name, int min) throws ServletException
+    {
+        String value = getInitParameter(name);
+        if (value == null)
+            return null;
+
+        try
+        {
+            int v = Integer.parseInt(value.trim());
+            if (v >= min)
+                return v;
+        }
+        catch (NumberFormatException e)
+        {
+            // reported below
+        }
+        throw new ServletException("Init parameter " + name + " should be an integer from " + min +
+                " to " + Integer.MAX_VALUE + ", got \"" + value + "\"");
+    }
+
+    /*
+     * Transport parameters could also be set for a single transport, e.g. "websocket.sendQueueSize".
+     */
+    private void checkTransportParameter(String name, int min) throws ServletException
+    {
+        getIntParameter(name, min);
+        for (TransportType type : TransportType.values())
+            if (type != TransportType.UNKNOWN)
+                getIntParameter(type + "." + name, min);
+    }
+
+    private static PacketParser createParser(String name) throws ServletException
+    {
+        if (JSONPacketParser.NAME.equals(name))
+            return new JSONPacketParser();
+        if (MsgPackPacketParser.NAME.equals(name))
+            return new MsgPackPacketParser();
+
+        try
+        {
+            return (PacketParser) Class.forName(name).newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException e)
+        {
+            throw new ServletException("Cannot create packet parser " + name, e);
+        }
+    }
+
     @Override
     public void destroy()
     {
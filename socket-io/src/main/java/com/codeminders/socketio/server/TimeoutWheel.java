@@ -0,0 +1,189 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel of inactivity timeouts.
+ * <p>
+ * A timeout remembers the time of the last activity, so {@link Timeout#touch()} is a single volatile write.
+ * The wheel is advanced every {@link #TICK} ms. An entry found in the current bucket either
+ * expires or is moved to the bucket of its new deadline, that happens at most once per timeout period.
+ * A timeout fires between its period and its period plus one tick after the last activity.
+ */
+class TimeoutWheel implements Runnable
+{
+    private static final Logger LOGGER = Logger.getLogger(TimeoutWheel.class.getName());
+
+    static final long TICK = 500; // ms
+
+    private static final int WHEEL_SIZE = 512; // power of two
+    private static final int MASK       = WHEEL_SIZE - 1;
+
+    /**
+     * Handle of scheduled timeout
+     */
+    final class Timeout
+    {
+        private final Runnable task;
+        private final long     period;
+
+        private volatile long    lastActivity = now();
+        private volatile boolean cancelled;
+
+        private Timeout next; // guarded by the wheel
+
+        private Timeout(Runnable task, long period)
+        {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Postpones the timeout for another period
+         */
+        void touch()
+        {
+            lastActivity = now();
+        }
+
+        void cancel()
+        {
+            cancelled = true;
+        }
+
+        private long deadline()
+        {
+            return lastActivity + period;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+
+    // guarded by this
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private long            start; // time of tick 0, ticks run at fixed rate from it
+    private long            tick;
+    private boolean         started;
+
+    TimeoutWheel(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * @param task   to be run on timeout
+     * @param period timeout in ms since the last activity
+     * @return handle to postpone or cancel the timeout
+     */
+    Timeout schedule(Runnable task, long period)
+    {
+        Timeout timeout = new Timeout(task, period);
+        synchronized (this)
+        {
+            if (!started)
+            {
+                // the executor thread is not created until somebody needs it
+                started = true;
+                start = now();
+                executor.scheduleAtFixedRate(this, TICK, TICK, TimeUnit.MILLISECONDS);
+            }
+            add(timeout);
+        }
+        return timeout;
+    }
+
+    @Override
+    public void run()
+    {
+        long now = now();
+
+        while (true)
+        {
+            Timeout expired = null;
+            synchronized (this)
+            {
+                if (tick >= (now - start) / TICK)
+                    return;
+
+                int i = (int) (++tick & MASK);
+                Timeout t = buckets[i];
+                buckets[i] = null;
+                while (t != null)
+                {
+                    Timeout next = t.next;
+                    t.next = null;
+                    if (!t.cancelled)
+                    {
+                        if (t.deadline() <= now)
+                        {
+                            t.next = expired;
+                            expired = t;
+                        }
+                        else
+                            add(t); // touched since it was placed here
+                    }
+                    t = next;
+                }
+            }
+
+            // tasks are run outside of the lock, they could schedule new timeouts
+            while (expired != null)
+            {
+                Timeout next = expired.next;
+                expired.next = null;
+                expired.cancelled = true;
+                try
+                {
+                    expired.task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    if (LOGGER.isLoggable(Level.WARNING))
+                        LOGGER.log(Level.WARNING, "Timeout task failed", e);
+                }
+                expired = next;
+            }
+        }
+    }
+
+    private void add(Timeout timeout)
+    {
+        long ticks = Math.max((timeout.deadline() - start + TICK - 1) / TICK, tick + 1);
+        int i = (int) (ticks & MASK);
+        timeout.next = buckets[i];
+        buckets[i] = timeout;
+    }
+
+    /**
+     * @return current time in ms, overridden in tests
+     */
+    long now()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -26,6 +26,7 @@
 package com.codeminders.socketio.server;
 
 import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
 import com.codeminders.socketio.protocol.EngineIOPacket;
 import com.codeminders.socketio.protocol.SocketIOPacket;
 
@@ -55,6 +56,22 @@ public interface TransportConnection
     void send(EngineIOPacket packet) throws SocketIOException;
     void send(SocketIOPacket packet) throws SocketIOException;
 
+    /**
+     * Writes pre-encoded packet to the connection.
+     * The same frame could be sent to many connections.
+     *
+     * @param frame encoded packet
+     * @throws SocketIOException if IO error happens
+     */
+    void send(BroadcastFrame frame) throws SocketIOException;
+
+    /**
+     * Volatile emits are dropped unless the connection is writable.
+     *
+     * @return true if a packet sent now would go to the client without waiting behind other packets
+     */
+    boolean isWritable();
+
     void disconnect(String namespace, boolean closeConnection);
 
     /**
@@ -69,6 +86,27 @@ public interface TransportConnection
 
     void emit(String namespace, String name, Object... args) throws SocketIOException;
 
+    /**
+     * Emits an event requesting acknowledgement.
+     *
+     * @param namespace namespace
+     * @param name      event name
+     * @param args      event arguments
+     * @param listener  ACK listener, see {@link Session#subscribeACK(ACKListener, long)}
+     * @param timeout   ms to wait for the ACK, 0 to wait until the session is closed
+     * @throws SocketIOException if IO or protocol error happens or too many ACKs are pending
+     */
+    void emit(String namespace, String name, Object[] args, ACKListener listener, long timeout)
+            throws SocketIOException;
+
+    /**
+     * Emits pre-encoded event to the socket.
+     *
+     * @param frame encoded event, see {@link com.codeminders.socketio.protocol.SocketIOProtocol#createBroadcastFrame}
+     * @throws SocketIOException if IO error happens or connection is closed
+     */
+    void emit(BroadcastFrame frame) throws SocketIOException;
+
     /**
      * @return current HTTP request, null if connection is disconnected
      */
@@ -53,7 +53,7 @@ public abstract class AbstractHttpTransport extends AbstractTransport
         TransportConnection connection = getConnection(request, socketIOManager);
         Session session = connection.getSession();
 
-        if (session.getConnectionState() == ConnectionState.CONNECTING)
+        if (session.needsHandshake())
         {
 
             ArrayList<String> upgrades = new ArrayList<>();
@@ -68,8 +68,10 @@ public abstract class AbstractHttpTransport extends AbstractTransport
             connection.handle(request, response); // called to send the handshake packet
             session.onConnect(connection);
         }
-        else if (session.getConnectionState() == ConnectionState.CONNECTED)
+        else if (session.getConnectionState() == ConnectionState.CONNECTING ||
+                session.getConnectionState() == ConnectionState.CONNECTED)
         {
+            // connect could still be waiting on the session's mailbox, polls and packets are queued after it
             connection.handle(request, response);
         }
         else
@@ -27,6 +27,8 @@ package com.codeminders.socketio.server.transport;
 import com.codeminders.socketio.common.ConnectionState;
 import com.codeminders.socketio.common.DisconnectReason;
 import com.codeminders.socketio.common.SocketIOException;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+import com.codeminders.socketio.protocol.EngineIOPacket;
 import com.codeminders.socketio.protocol.SocketIOPacket;
 import com.codeminders.socketio.protocol.SocketIOProtocol;
 import com.codeminders.socketio.server.*;
@@ -82,6 +84,22 @@ public abstract class AbstractTransportConnection implements TransportConnection
     {
     }
 
+    /**
+     * Encodes the packet with the session parser and sends resulting Engine.IO messages.
+     */
+    @Override
+    public void send(SocketIOPacket packet) throws SocketIOException
+    {
+        for (EngineIOPacket message : getSession().getParser().encode(packet))
+            send(message);
+    }
+
+    @Override
+    public boolean isWritable()
+    {
+        return true;
+    }
+
     @Override
     public void disconnect(String namespace, boolean closeConnection)
     {
@@ -103,26 +121,46 @@ public abstract class AbstractTransportConnection implements TransportConnection
     public void emit(String namespace, String name, Object... args)
             throws SocketIOException
     {
-        if (getSession().getConnectionState() != ConnectionState.CONNECTED)
-            throw new SocketIOClosedException();
-
-        ACKListener ack_listener = null;
         if(args.length > 0 && args[args.length-1] instanceof ACKListener)
         {
-            ack_listener = (ACKListener)args[args.length-1];
-            args = Arrays.copyOfRange(args, 0, args.length-1);
+            emit(namespace, name, Arrays.copyOfRange(args, 0, args.length - 1),
+                    (ACKListener) args[args.length - 1], 0);
+            return;
         }
 
-        int packet_id = -1;
-        if(ack_listener != null)
-            packet_id = getSession().getNewPacketId();
+        if (getSession().getConnectionState() != ConnectionState.CONNECTED)
+            throw new SocketIOClosedException();
+
+        send(SocketIOProtocol.createEventPacket(-1, namespace, name, args));
+    }
+
+    @Override
+    public void emit(String namespace, String name, Object[] args, ACKListener listener, long timeout)
+            throws SocketIOException
+    {
+        if (getSession().getConnectionState() != ConnectionState.CONNECTED)
+            throw new SocketIOClosedException();
 
-        SocketIOPacket packet = SocketIOProtocol.createEventPacket(packet_id, namespace, name, args);
+        int packet_id = getSession().subscribeACK(listener, timeout);
+        try
+        {
+            send(SocketIOProtocol.createEventPacket(packet_id, namespace, name, args));
+        }
+        catch (SocketIOException | RuntimeException e)
+        {
+            getSession().unsubscribeACK(packet_id);
+            throw e;
+        }
+    }
 
-        if(packet_id >= 0)
-            getSession().subscribeACK(packet_id, ack_listener);
+    @Override
+    public void emit(BroadcastFrame frame)
+            throws SocketIOException
+    {
+        if (getSession().getConnectionState() != ConnectionState.CONNECTED)
+            throw new SocketIOClosedException();
 
-        send(packet);
+        send(frame);
     }
 
     @Override
@@ -1,22 +1,39 @@
 package com.codeminders.socketio.server.transport;
 
 import com.codeminders.socketio.common.SocketIOException;
-import com.codeminders.socketio.protocol.BinaryPacket;
+import com.codeminders.socketio.protocol.BroadcastFrame;
+import com.codeminders.socketio.protocol.EngineIOBinaryPayloadDecoder;
+import com.codeminders.socketio.protocol.EngineIOBinaryPayloadEncoder;
 import com.codeminders.socketio.protocol.EngineIOPacket;
+import com.codeminders.socketio.protocol.EngineIOPayloadDecoder;
 import com.codeminders.socketio.protocol.EngineIOProtocol;
-import com.codeminders.socketio.protocol.SocketIOPacket;
+import com.codeminders.socketio.server.Config;
 import com.codeminders.socketio.server.SocketIOProtocolException;
 import com.codeminders.socketio.server.Transport;
-import com.google.common.io.CharStreams;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,15 +47,40 @@ public class XHRTransportConnection extends AbstractTransportConnection
 
     private static final Logger LOGGER = Logger.getLogger(XHRTransportConnection.class.getName());
 
+    private static volatile boolean asyncWarningLogged;
+
+    // polling responses are encoded on container threads, so the buffers are kept per thread
+    private static final ThreadLocal<EngineIOBinaryPayloadEncoder> PAYLOADS =
+            new ThreadLocal<EngineIOBinaryPayloadEncoder>()
+            {
+                @Override
+                protected EngineIOBinaryPayloadEncoder initialValue()
+                {
+                    return new EngineIOBinaryPayloadEncoder();
+                }
+            };
+
     private BlockingQueue<EngineIOPacket> packets = new LinkedBlockingDeque<>();
 
-    private boolean done = false;
+    private int maxResponseSize = Config.DEFAULT_MAX_POLL_RESPONSE_SIZE;
+
+    private final Object  pollLock = new Object();
+    private AsyncContext  pendingPoll; // polling GET waiting for data, guarded by pollLock
+    private int           blockingPolls; // blocking GETs waiting for data, guarded by pollLock
+
+    private volatile boolean done = false;
 
     public XHRTransportConnection(Transport transport)
     {
         super(transport);
     }
 
+    @Override
+    protected void init()
+    {
+        maxResponseSize = getConfig().getInt(Config.MAX_POLL_RESPONSE_SIZE, Config.DEFAULT_MAX_POLL_RESPONSE_SIZE);
+    }
+
     @Override
     public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException
     {
@@ -68,53 +110,496 @@ public class XHRTransportConnection extends AbstractTransportConnection
             response.setContentType("text/plain");
 
             String contentType = request.getContentType();
-            if (contentType.startsWith("text/"))
+            boolean text;
+            if (contentType != null && contentType.startsWith("text/"))
+                text = true;
+            else
+            if (contentType != null && contentType.startsWith("application/octet-stream"))
+                text = false;
+            else
+                throw new SocketIOProtocolException("Unsupported request content type for incoming polling request: " + contentType);
+
+            if (request.isAsyncSupported() && isNonBlockingReadSupported(request))
+            {
+                // payload is decoded as it arrives without holding a container thread
+                AsyncContext ctx = request.startAsync(request, response);
+                ctx.setTimeout(getConfig().getTimeout(Config.DEFAULT_PING_TIMEOUT));
+                PayloadReader reader = new PayloadReader(ctx, text, request.getCharacterEncoding());
+                ctx.addListener(reader);
+                request.getInputStream().setReadListener(reader);
+                return;
+            }
+
+            if (text)
             {
-                // text encoding
-                String payload = CharStreams.toString(request.getReader());
+                // text encoding. packets are dispatched as soon as they arrive.
+                // Not getReader(), it falls back to ISO-8859-1 while the non-blocking path uses UTF-8
+                EngineIOPayloadDecoder decoder = new EngineIOPayloadDecoder(
+                        new InputStreamReader(request.getInputStream(), payloadCharset(request.getCharacterEncoding())),
+                        getConfig().getBufferSize());
 
-                for (EngineIOPacket packet : EngineIOProtocol.decodePayload(payload))
+                for (EngineIOPacket packet = decoder.next(); packet != null; packet = decoder.next())
                     getSession().onPacket(packet, this);
             }
             else
-            if (contentType.startsWith("application/octet-stream"))
             {
                 // binary encoding
                 for (EngineIOPacket packet : EngineIOProtocol.binaryDecodePayload(request.getInputStream()))
                     getSession().onPacket(packet, this);
             }
-            else
-            {
-                throw new SocketIOProtocolException("Unsupported request content type for incoming polling request: " + contentType);
-            }
             response.getWriter().print("ok");
         }
         else if ("GET".equals(request.getMethod())) //outgoing
         {
             response.setContentType("application/octet-stream");
+
+            if (request.isAsyncSupported())
+                poll(request, response);
+            else
+                blockingPoll(response);
+        }
+        else if(!"OPTIONS".equals(request.getMethod()))
+        {
+            // OPTIONS is CORS pre-flight request
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        }
+    }
+
+    /*
+     * ReadListener is Servlet 3.1, the container could be older than the API we are compiled against.
+     */
+    private static boolean isNonBlockingReadSupported(HttpServletRequest request)
+    {
+        ServletContext context = request.getServletContext();
+        return context.getMajorVersion() > 3 || (context.getMajorVersion() == 3 && context.getMinorVersion() >= 1);
+    }
+
+    /*
+     * Clients send UTF-8 payloads, usually without declaring the charset.
+     */
+    private static Charset payloadCharset(String encoding) throws UnsupportedEncodingException
+    {
+        if (encoding == null)
+            return StandardCharsets.UTF_8;
+
+        try
+        {
+            return Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
+    /*
+     * Parks the request without a thread until there is something to send.
+     */
+    private void poll(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        AsyncContext previous;
+        boolean parked = false;
+        synchronized (pollLock)
+        {
+            previous = pendingPoll;
+            pendingPoll = null;
+
+            if (packets.isEmpty() && !done)
+            {
+                AsyncContext ctx = request.startAsync(request, response);
+                ctx.setTimeout(getConfig().getPingInterval(Config.DEFAULT_PING_INTERVAL));
+                ctx.addListener(new PollListener());
+                pendingPoll = ctx;
+                parked = true;
+            }
+        }
+
+        if (previous != null)
+            releasePoll(previous);
+
+        if (!parked)
+            writePackets(response);
+    }
+
+    /*
+     * Fallback for servlets not registered as async-supported. Holds container thread while waiting.
+     */
+    private void blockingPoll(HttpServletResponse response) throws IOException
+    {
+        if (!asyncWarningLogged)
+        {
+            asyncWarningLogged = true;
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.warning("Socket.IO servlet is not async-supported, every polling client holds a thread");
+        }
+
+        try
+        {
+            EngineIOPacket first;
+            synchronized (pollLock)
+            {
+                blockingPolls++;
+            }
             try
             {
+                first = packets.take();
+            }
+            finally
+            {
+                synchronized (pollLock)
+                {
+                    blockingPolls--;
+                }
+            }
+
+            if (!done)
+                writePackets(first, response);
+        }
+        catch (InterruptedException e)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Polling connection interrupted", e);
+        }
+    }
+
+    private void writePackets(ServletResponse response) throws IOException
+    {
+        writePackets(null, response);
+    }
+
+    /*
+     * Drains the queue into one payload, up to the response size limit, and sends it with a single write.
+     * Packets left in the queue go with the next poll.
+     */
+    private void writePackets(EngineIOPacket first, ServletResponse response) throws IOException
+    {
+        EngineIOBinaryPayloadEncoder payload = PAYLOADS.get();
+        try
+        {
+            if (first != null)
+                payload.add(first);
+
+            while (!done && payload.size() < maxResponseSize)
+            {
+                EngineIOPacket packet = packets.poll();
+                if (packet == null)
+                    break;
+                payload.add(packet);
+            }
 
-                OutputStream os = response.getOutputStream();
-                for (EngineIOPacket packet = packets.take(); packet != null; packet = packets.poll())
+            writePayload(payload, response);
+        }
+        finally
+        {
+            payload.reset();
+        }
+    }
+
+    private static void writePayload(EngineIOBinaryPayloadEncoder payload, ServletResponse response) throws IOException
+    {
+        response.setContentLength(payload.size());
+        payload.writeTo(response.getOutputStream());
+        response.flushBuffer();
+    }
+
+    /*
+     * Ends a poll superseded by a newer one. Queued packets are left for the new poll, since the client
+     * could have given up on the old one. An empty payload is a parse error for the client, so the old poll gets NOOP.
+     */
+    private void releasePoll(AsyncContext ctx)
+    {
+        EngineIOBinaryPayloadEncoder payload = PAYLOADS.get();
+        try
+        {
+            payload.add(EngineIOProtocol.createNoopPacket());
+            writePayload(payload, ctx.getResponse());
+        }
+        catch (IOException e)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: polling response failed", e);
+        }
+        finally
+        {
+            payload.reset();
+            ctx.complete();
+        }
+    }
+
+    private void completePoll(AsyncContext ctx)
+    {
+        try
+        {
+            if (packets.isEmpty() && !done)
+                packets.add(EngineIOProtocol.createNoopPacket()); // poll timed out, client will poll again
+
+            writePackets(ctx.getResponse());
+        }
+        catch (IOException e)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: polling response failed", e);
+        }
+        finally
+        {
+            ctx.complete();
+        }
+    }
+
+    /**
+     * @return true if there is a poll waiting for data, otherwise a packet would wait for the next poll
+     */
+    @Override
+    public boolean isWritable()
+    {
+        synchronized (pollLock)
+        {
+            return (pendingPoll != null || (blockingPolls > 0 && packets.isEmpty())) && !done;
+        }
+    }
+
+    /*
+     * @return pending poll if there is one, the caller is responsible to complete it
+     */
+    private AsyncContext claimPendingPoll()
+    {
+        synchronized (pollLock)
+        {
+            AsyncContext ctx = pendingPoll;
+            pendingPoll = null;
+            return ctx;
+        }
+    }
+
+    private class PollListener implements AsyncListener
+    {
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            completeIfPending(event.getAsyncContext());
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            completeIfPending(event.getAsyncContext());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+
+        private void completeIfPending(AsyncContext ctx)
+        {
+            synchronized (pollLock)
+            {
+                if (pendingPoll != ctx)
+                    return; // already taken by send()
+                pendingPoll = null;
+            }
+            completePoll(ctx);
+        }
+    }
+
+    /*
+     * Feeds polling POST payload to the decoder as the container reports it readable
+     * and dispatches every packet as soon as it is complete.
+     * Also listens to the request to stop reading when it times out or fails.
+     */
+    private class PayloadReader implements ReadListener, AsyncListener
+    {
+        private final AsyncContext ctx;
+        private final ServletInputStream in;
+        private final byte[] buffer = new byte[getConfig().getBufferSize()];
+
+        // text payload
+        private final EngineIOPayloadDecoder textDecoder;
+        private final CharsetDecoder         charsetDecoder;
+        private final ByteBuffer             bytes;
+        private final CharBuffer             chars;
+
+        // binary payload
+        private final EngineIOBinaryPayloadDecoder binaryDecoder;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        PayloadReader(AsyncContext ctx, boolean text, String encoding) throws IOException
+        {
+            this.ctx = ctx;
+            this.in = ctx.getRequest().getInputStream();
+
+            if (text)
+            {
+                textDecoder = new EngineIOPayloadDecoder();
+                charsetDecoder = payloadCharset(encoding).newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                bytes = ByteBuffer.wrap(buffer);
+                chars = CharBuffer.allocate(buffer.length);
+                binaryDecoder = null;
+            }
+            else
+            {
+                binaryDecoder = new EngineIOBinaryPayloadDecoder();
+                textDecoder = null;
+                charsetDecoder = null;
+                bytes = null;
+                chars = null;
+            }
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException
+        {
+            try
+            {
+                while (!finished.get() && in.isReady())
+                {
+                    if (textDecoder != null)
+                    {
+                        int n = in.read(buffer, bytes.position(), bytes.remaining());
+                        if (n == -1)
+                            return;
+                        bytes.position(bytes.position() + n);
+                        bytes.flip();
+                        decodeText(false);
+                        bytes.compact(); // keep incomplete character for the next read
+                    }
+                    else
+                    {
+                        int n = in.read(buffer);
+                        if (n == -1)
+                            return;
+                        binaryDecoder.feed(buffer, 0, n);
+                    }
+                    dispatch();
+                }
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException
+        {
+            if (finished.get())
+                return;
+
+            try
+            {
+                if (textDecoder != null)
                 {
-                    if(done)
-                        break;
-                    EngineIOProtocol.binaryEncode(packet, os);
+                    bytes.flip();
+                    decodeText(true);
+                    textDecoder.finish();
                 }
+                else
+                    binaryDecoder.finish();
+                dispatch();
 
-                response.flushBuffer();
+                ctx.getResponse().getWriter().print("ok");
+                finish();
+            }
+            catch (IOException e)
+            {
+                fail(e);
             }
-            catch (InterruptedException e)
+            catch (IllegalStateException e)
             {
-                if (LOGGER.isLoggable(Level.FINE))
-                    LOGGER.log(Level.FINE, "Polling connection interrupted", e);
+                // the request timed out meanwhile
             }
         }
-        else if(!"OPTIONS".equals(request.getMethod()))
+
+        @Override
+        public void onError(Throwable t)
         {
-            // OPTIONS is CORS pre-flight request
-            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: polling request failed", t);
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Session[" + getSession().getSessionId() + "]: polling request timed out");
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            finished.set(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+
+        private void decodeText(boolean endOfInput) throws SocketIOProtocolException
+        {
+            CoderResult result;
+            do
+            {
+                result = charsetDecoder.decode(bytes, chars, endOfInput);
+                if (endOfInput && result.isUnderflow())
+                    result = charsetDecoder.flush(chars);
+                textDecoder.feed(chars.array(), 0, chars.position());
+                chars.clear();
+            }
+            while (result.isOverflow());
+        }
+
+        private void dispatch()
+        {
+            if (textDecoder != null)
+                for (EngineIOPacket packet = textDecoder.poll(); packet != null; packet = textDecoder.poll())
+                    getSession().onPacket(packet, XHRTransportConnection.this);
+            else
+                for (EngineIOPacket packet = binaryDecoder.poll(); packet != null; packet = binaryDecoder.poll())
+                    getSession().onPacket(packet, XHRTransportConnection.this);
+        }
+
+        private void fail(IOException e)
+        {
+            if (LOGGER.isLoggable(Level.WARNING))
+                LOGGER.log(Level.WARNING, "Session[" + getSession().getSessionId() + "]: invalid polling payload", e);
+
+            HttpServletResponse response = (HttpServletResponse) ctx.getResponse();
+            if (!response.isCommitted())
+            {
+                try
+                {
+                    response.sendError(e instanceof SocketIOProtocolException ?
+                            HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                catch (IOException | IllegalStateException ignore)
+                {
+                    // client is gone
+                }
+            }
+            finish();
+        }
+
+        private void finish()
+        {
+            if (finished.compareAndSet(false, true))
+                ctx.complete();
         }
     }
 
@@ -136,16 +621,27 @@ public class XHRTransportConnection extends AbstractTransportConnection
     public void send(EngineIOPacket packet) throws SocketIOException
     {
         packets.add(packet);
+
+        final AsyncContext ctx = claimPendingPoll();
+        if (ctx != null)
+        {
+            // write on a container thread, the caller could be broadcasting to many connections
+            ctx.start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    completePoll(ctx);
+                }
+            });
+        }
     }
 
     @Override
-    public void send(SocketIOPacket packet) throws SocketIOException
+    public void send(BroadcastFrame frame) throws SocketIOException
     {
-        send(EngineIOProtocol.createMessagePacket(packet.encode()));
-        if(packet instanceof BinaryPacket)
-        {
-            for (InputStream is : ((BinaryPacket)packet).getAttachments())
-                send(EngineIOProtocol.createMessagePacket(is));
-        }
+        send(frame.getPacket());
+        for (ByteBuffer attachment : frame.getAttachments())
+            send(EngineIOProtocol.createMessagePacket(attachment));
     }
 }
@@ -0,0 +1,311 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server.transport.websocket;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound queue of websocket connection. Messages are written with
+ * {@link RemoteEndpoint.Async} one at a time, so the sender never waits for the client's TCP window.
+ */
+final class WebsocketSendQueue implements SendHandler
+{
+    /**
+     * What to do when the queue is full
+     */
+    enum Overflow
+    {
+        DROP,       // drop the message
+        DISCONNECT, // close the connection
+        BLOCK       // wait until there is room in the queue
+    }
+
+    /**
+     * Binary message read from the stream only when its turn to be written comes
+     */
+    static final class Stream
+    {
+        final int         type; // EIO packet type
+        final InputStream data;
+
+        Stream(int type, InputStream data)
+        {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(WebsocketSendQueue.class.getName());
+
+    private final javax.websocket.Session endpoint;
+    private final RemoteEndpoint.Async    remote;
+    private final int                     capacity;
+    private final int                     chunkSize;
+    private final Executor                streamExecutor;
+
+    // guarded by this
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private boolean writing; // there is a message in flight
+    private boolean closing; // close the endpoint as soon as the queue is drained
+    private boolean closed;
+    private Thread  sender; // thread in send(), continues with the next message if the write completes inline
+    private Object  next;   // message to continue with
+
+    /**
+     * @param endpoint    websocket to write to
+     * @param capacity    max number of messages waiting to be written
+     * @param sendTimeout ms to wait for a message to be written
+     * @param chunkSize   size of the fragments a {@link Stream} is written in
+     * @param streamExecutor pool to write {@link Stream} messages on, they block while being written
+     */
+    WebsocketSendQueue(javax.websocket.Session endpoint, int capacity, long sendTimeout, int chunkSize,
+                       Executor streamExecutor)
+    {
+        this.endpoint = endpoint;
+        this.remote = endpoint.getAsyncRemote();
+        this.capacity = capacity;
+        this.chunkSize = chunkSize;
+        this.streamExecutor = streamExecutor;
+
+        // a client that stopped reading fails the write instead of holding the queue forever
+        remote.setSendTimeout(sendTimeout);
+    }
+
+    /**
+     * Queues the message to be sent.
+     *
+     * @param message {@link String} for text message, {@link ByteBuffer} or {@link Stream} for binary message
+     * @param wait    wait for room in the queue if it is full
+     * @return false if the queue is full or closed
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    boolean offer(Object message, boolean wait) throws InterruptedException
+    {
+        synchronized (this)
+        {
+            while (!closed && !closing && queue.size() >= capacity)
+            {
+                if (!wait)
+                    return false;
+                wait();
+            }
+
+            if (closed || closing)
+                return false;
+
+            if (writing)
+            {
+                queue.add(message);
+                return true;
+            }
+
+            writing = true;
+        }
+
+        send(message);
+        return true;
+    }
+
+    synchronized boolean isClosed()
+    {
+        return closed || closing;
+    }
+
+    /**
+     * @return number of messages waiting behind the one being written
+     */
+    synchronized int size()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Closes the queue and the websocket.
+     *
+     * @param drain send queued messages before closing the websocket
+     */
+    void close(boolean drain)
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+
+            if (drain && writing)
+            {
+                closing = true;
+                notifyAll();
+                return;
+            }
+
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+
+        closeEndpoint();
+    }
+
+    @Override
+    public void onResult(SendResult result)
+    {
+        if (!result.isOK())
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Websocket write failed", result.getException());
+            close(false);
+            return;
+        }
+
+        Object message;
+        synchronized (this)
+        {
+            message = queue.poll();
+            if (message == null)
+            {
+                writing = false;
+                if (!closing)
+                    return;
+                closed = true;
+            }
+            notifyAll();
+
+            if (message != null && sender == Thread.currentThread())
+            {
+                // completed inside send(), let it continue instead of going deeper into the stack
+                next = message;
+                return;
+            }
+        }
+
+        if (message == null)
+            closeEndpoint(); // queue is drained
+        else
+            send(message);
+    }
+
+    /*
+     * Containers complete small writes inline, e.g. Tomcat, so onResult() is called from inside write().
+     * Such completions hand the next message back to this loop.
+     */
+    private void send(Object message)
+    {
+        while (message != null)
+        {
+            synchronized (this)
+            {
+                sender = Thread.currentThread();
+            }
+
+            write(message);
+
+            synchronized (this)
+            {
+                if (sender != Thread.currentThread())
+                    return; // completed on another thread which took over the queue
+                message = next;
+                next = null;
+                if (message == null)
+                    sender = null;
+            }
+        }
+    }
+
+    private void write(Object message)
+    {
+        try
+        {
+            if (message instanceof String)
+                remote.sendText((String) message, this);
+            else if (message instanceof ByteBuffer)
+                remote.sendBinary((ByteBuffer) message, this);
+            else
+                write((Stream) message);
+        }
+        catch (RuntimeException e)
+        {
+            // endpoint is already closed
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Websocket write failed", e);
+            close(false);
+        }
+    }
+
+    /*
+     * Asynchronous writes cannot be fragmented, so the stream is written in fragments with the blocking API.
+     * It is safe since no other message is in flight, the queue continues when the stream is written.
+     */
+    private void write(final Stream stream)
+    {
+        try
+        {
+            streamExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    SendResult result;
+                    try
+                    {
+                        WebsocketTransportConnection.writeFragments(endpoint.getBasicRemote(),
+                                stream.type, stream.data, chunkSize);
+                        result = new SendResult();
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        result = new SendResult(e);
+                    }
+                    onResult(result);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, "Websocket write failed", e);
+            close(false);
+        }
+    }
+
+    private void closeEndpoint()
+    {
+        try
+        {
+            endpoint.close();
+        }
+        catch (IOException e)
+        {
+            // ignore
+        }
+    }
+}
@@ -25,21 +25,89 @@
  */
 package com.codeminders.socketio.server.transport.websocket;
 
+import com.codeminders.socketio.server.Config;
 import com.codeminders.socketio.server.SocketIOManager;
 import com.codeminders.socketio.server.TransportConnection;
 import com.codeminders.socketio.server.TransportType;
 import com.codeminders.socketio.server.transport.AbstractTransport;
 import com.codeminders.socketio.server.transport.AbstractTransportConnection;
 
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public final class WebsocketTransport extends AbstractTransport
 {
     private static final Logger LOGGER = Logger.getLogger(WebsocketTransport.class.getName());
 
+    private static final int DEFAULT_STREAM_THREADS = Runtime.getRuntime().availableProcessors() * 4;
+
+    private ThreadPoolExecutor streamPool; // guarded by this
+
+    @Override
+    public void init(ServletConfig config, ServletContext context) throws ServletException
+    {
+        super.init(config, context);
+
+        int threads = getConfig().getInt(Config.SEND_STREAM_THREADS, DEFAULT_STREAM_THREADS);
+        synchronized (this)
+        {
+            if (streamPool != null)
+                streamPool.shutdown();
+            streamPool = newStreamPool(threads);
+        }
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        if (streamPool != null)
+            streamPool.shutdown();
+        super.destroy();
+    }
+
+    /**
+     * @return pool the send queues write streamed binary messages on
+     */
+    synchronized Executor getStreamExecutor()
+    {
+        if (streamPool == null)
+            streamPool = newStreamPool(DEFAULT_STREAM_THREADS);
+        return streamPool;
+    }
+
+    /*
+     * Stream writes block until the client reads the message or the send timeout expires.
+     * Writes over the limit wait for a thread, idle threads go away.
+     */
+    private static ThreadPoolExecutor newStreamPool(int threads)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "socketio-websocket-stream-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     @Override
     public TransportType getType()
     {
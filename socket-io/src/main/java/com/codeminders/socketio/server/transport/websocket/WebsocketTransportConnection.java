@@ -25,10 +25,9 @@ package com.codeminders.socketio.server.transport.websocket;
 import com.codeminders.socketio.common.ConnectionState;
 import com.codeminders.socketio.common.DisconnectReason;
 import com.codeminders.socketio.common.SocketIOException;
-import com.codeminders.socketio.protocol.BinaryPacket;
+import com.codeminders.socketio.protocol.BroadcastFrame;
 import com.codeminders.socketio.protocol.EngineIOPacket;
 import com.codeminders.socketio.protocol.EngineIOProtocol;
-import com.codeminders.socketio.protocol.SocketIOPacket;
 import com.codeminders.socketio.server.*;
 import com.codeminders.socketio.server.transport.AbstractTransportConnection;
 import com.google.common.io.ByteStreams;
@@ -38,12 +37,12 @@ import javax.servlet.http.HttpServletResponse;
 import javax.websocket.*;
 import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerEndpoint;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +56,12 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
     private static final Logger LOGGER = Logger.getLogger(WebsocketTransportConnection.class.getName());
 
     private javax.websocket.Session remote_endpoint;
+    private final Object            writeLock = new Object();
+    private final AtomicInteger     writers   = new AtomicInteger(); // threads writing or waiting for writeLock
+
+    private volatile WebsocketSendQueue sendQueue; // null if messages are written synchronously
+    private WebsocketSendQueue.Overflow overflow;
+    private int                         watermark; // max messages queued for a volatile emit to go through
 
     public WebsocketTransportConnection() {
         super(WebsocketTransportProvider.websocket);
@@ -89,7 +94,17 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         session.setMaxIdleTimeout(getConfig().getMaxIdle());
         session.setMaxTextMessageBufferSize(getConfig().getInt(Config.MAX_TEXT_MESSAGE_SIZE, 32000));
 
-        if(getSession().getConnectionState() == ConnectionState.CONNECTING)
+        int queueSize = getConfig().getInt(Config.SEND_QUEUE_SIZE, 0);
+        if (queueSize > 0)
+        {
+            overflow = WebsocketSendQueue.Overflow.valueOf(
+                    getConfig().getString(Config.SEND_QUEUE_OVERFLOW, "disconnect").toUpperCase());
+            watermark = getConfig().getInt(Config.SEND_QUEUE_WATERMARK, 0);
+            sendQueue = new WebsocketSendQueue(session, queueSize, getConfig().getTimeout(Config.DEFAULT_PING_TIMEOUT),
+                    getConfig().getBufferSize(), ((WebsocketTransport) getTransport()).getStreamExecutor());
+        }
+
+        if (getSession().needsHandshake())
         {
             try
             {
@@ -116,6 +131,9 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
             LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]:" +
                     " websocket closed. " + closeReason.toString());
 
+        if (sendQueue != null)
+            sendQueue.close(false); // release senders waiting for room in the queue
+
         //If close is unexpected then try to guess the reason based on closeCode, otherwise the reason is already set
         if(getSession().getConnectionState() != ConnectionState.CLOSING)
             getSession().setDisconnectReason(fromCloseCode(closeReason.getCloseCode().getCode()));
@@ -130,8 +148,6 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Session[" + getSession().getSessionId() + "]: text received: " + text);
 
-        getSession().resetTimeout();
-
         try
         {
             getSession().onPacket(EngineIOProtocol.decode(text), this);
@@ -149,13 +165,13 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Session[" + getSession().getSessionId() + "]: binary received");
 
-        getSession().resetTimeout();
-
         try
         {
-            getSession().onPacket(EngineIOProtocol.decode(is), this);
+            // the stream is only valid until this method returns, the packet is processed later
+            InputStream data = new ByteArrayInputStream(ByteStreams.toByteArray(is));
+            getSession().onPacket(EngineIOProtocol.decode(data), this);
         }
-        catch (SocketIOProtocolException e)
+        catch (IOException e)
         {
             if(LOGGER.isLoggable(Level.WARNING))
                 LOGGER.log(Level.WARNING, "Problem processing binary received", e);
@@ -174,11 +190,30 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unexpected request on upgraded WebSocket connection");
     }
 
+    /**
+     * Synchronous websocket is writable while nobody is writing to it, otherwise the sender would wait for the write.
+     * With the send queue it is writable while there are no more than "sendQueueWatermark" messages queued.
+     */
+    @Override
+    public boolean isWritable()
+    {
+        WebsocketSendQueue queue = sendQueue;
+        if (queue == null)
+            return remote_endpoint != null && writers.get() == 0;
+
+        return !queue.isClosed() && queue.size() <= watermark;
+    }
+
     @Override
     public void abort()
     {
         getSession().clearTimeout();
-        if (remote_endpoint != null)
+        if (sendQueue != null)
+        {
+            sendQueue.close(true); // let the queued packets go first
+            remote_endpoint = null;
+        }
+        else if (remote_endpoint != null)
         {
             disconnectEndpoint();
             remote_endpoint = null;
@@ -188,42 +223,105 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
     @Override
     public void send(EngineIOPacket packet) throws SocketIOException
     {
-        sendString(EngineIOProtocol.encode(packet));
+        ByteBuffer buffer = packet.getBinaryBuffer();
+        if (buffer != null)
+        {
+            sendBinary(packet.getType(), buffer);
+        }
+        else if (packet.getBinaryData() != null)
+        {
+            sendBinary(packet.getType(), packet.getBinaryData());
+        }
+        else
+        {
+            sendString(EngineIOProtocol.encode(packet));
+        }
     }
 
     @Override
-    public void send(SocketIOPacket packet) throws SocketIOException
+    public void send(BroadcastFrame frame) throws SocketIOException
     {
-        send(EngineIOProtocol.createMessagePacket(packet.encode()));
-        if(packet instanceof BinaryPacket)
+        if (frame.getText() != null)
+            sendString(frame.getText());
+        else
+            send(frame.getPacket());
+
+        for (ByteBuffer attachment : frame.getAttachments())
+            sendBinary(EngineIOPacket.Type.MESSAGE, attachment.duplicate());
+    }
+
+    protected void sendString(String data) throws SocketIOException
+    {
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: send text: " + data);
+
+        if (sendQueue != null)
+        {
+            enqueue(data);
+            return;
+        }
+
+        try
         {
-            Collection<InputStream> attachments = ((BinaryPacket) packet).getAttachments();
-            for (InputStream is : attachments)
+            writers.incrementAndGet();
+            try
             {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                try
-                {
-                    os.write(EngineIOPacket.Type.MESSAGE.value());
-                    ByteStreams.copy(is, os);
-                }
-                catch (IOException e)
+                synchronized (writeLock)
                 {
-                    if(LOGGER.isLoggable(Level.WARNING))
-                        LOGGER.log(Level.SEVERE, "Cannot load binary object to send it to the socket", e);
+                    remote_endpoint.getBasicRemote().sendText(data);
                 }
-                sendBinary(os.toByteArray());
             }
+            finally
+            {
+                writers.decrementAndGet();
+            }
+        }
+        catch (IOException e)
+        {
+            disconnectEndpoint();
+            throw new SocketIOException(e);
         }
     }
 
-    protected void sendString(String data) throws SocketIOException
+    /**
+     * Sends binary EIO packet without copying the data.
+     * Packet type and the data are sent as two fragments of the same websocket message.
+     * Asynchronous writes cannot be fragmented, so the data is copied when the send queue is used.
+     *
+     * @param type EIO packet type
+     * @param data packet content. Could be read-only or direct buffer
+     * @throws SocketIOException if IO error happens
+     */
+    protected void sendBinary(EngineIOPacket.Type type, ByteBuffer data) throws SocketIOException
     {
         if (LOGGER.isLoggable(Level.FINE))
-            LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: send text: " + data);
+            LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: send binary");
+
+        if (sendQueue != null)
+        {
+            ByteBuffer message = ByteBuffer.allocate(data.remaining() + 1);
+            message.put((byte) type.value()).put(data).flip();
+            enqueue(message);
+            return;
+        }
 
         try
         {
-            remote_endpoint.getBasicRemote().sendText(data);
+            writers.incrementAndGet();
+            try
+            {
+                // fragments of one message should not interleave with other messages
+                synchronized (writeLock)
+                {
+                    RemoteEndpoint.Basic remote = remote_endpoint.getBasicRemote();
+                    remote.sendBinary(ByteBuffer.wrap(new byte[]{(byte) type.value()}), false);
+                    remote.sendBinary(data, true);
+                }
+            }
+            finally
+            {
+                writers.decrementAndGet();
+            }
         }
         catch (IOException e)
         {
@@ -232,16 +330,43 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         }
     }
 
-    //TODO: implement streaming. right now it is all in memory.
-    //TODO: read and send in chunks using sendPartialBytes()
-    protected void sendBinary(byte[] data) throws SocketIOException
+    /**
+     * Streams binary EIO packet to the socket.
+     * The stream is read in chunks of {@link Config#getBufferSize()} bytes and every chunk is sent
+     * as a fragment of the same websocket message, so the whole content is never kept in memory.
+     *
+     * @param type EIO packet type
+     * @param is   packet content
+     * @throws SocketIOException if the stream cannot be read or IO error happens.
+     *                           The connection is closed since the message could be sent partially.
+     *                           When the send queue is used the queue keeps the stream and reads it
+     *                           when the message is written
+     */
+    protected void sendBinary(EngineIOPacket.Type type, InputStream is) throws SocketIOException
     {
         if (LOGGER.isLoggable(Level.FINE))
-            LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: send binary");
+            LOGGER.log(Level.FINE, "Session[" + getSession().getSessionId() + "]: stream binary");
+
+        if (sendQueue != null)
+        {
+            enqueue(new WebsocketSendQueue.Stream(type.value(), is));
+            return;
+        }
 
         try
         {
-            remote_endpoint.getBasicRemote().sendBinary(ByteBuffer.wrap(data));
+            writers.incrementAndGet();
+            try
+            {
+                synchronized (writeLock)
+                {
+                    writeFragments(remote_endpoint.getBasicRemote(), type.value(), is, getConfig().getBufferSize());
+                }
+            }
+            finally
+            {
+                writers.decrementAndGet();
+            }
         }
         catch (IOException e)
         {
@@ -250,6 +375,68 @@ public final class WebsocketTransportConnection extends AbstractTransportConnect
         }
     }
 
+    /**
+     * Writes binary EIO packet as fragments of one websocket message.
+     *
+     * @param remote    websocket to write to
+     * @param type      EIO packet type
+     * @param is        packet content
+     * @param chunkSize max size of a fragment
+     * @throws IOException if the stream cannot be read or IO error happens
+     */
+    static void writeFragments(RemoteEndpoint.Basic remote, int type, InputStream is, int chunkSize)
+            throws IOException
+    {
+        byte[] chunk = new byte[Math.max(chunkSize, 2)];
+        chunk[0] = (byte) type;
+        int offset = 1; // first fragment starts with the packet type
+
+        while (true)
+        {
+            // ByteStreams.read() returns less than requested only at the end of stream
+            int len = offset + ByteStreams.read(is, chunk, offset, chunk.length - offset);
+            boolean last = len < chunk.length;
+            remote.sendBinary(ByteBuffer.wrap(chunk, 0, len), last);
+            if (last)
+                break;
+            offset = 0;
+        }
+    }
+
+    private void enqueue(Object message) throws SocketIOException
+    {
+        WebsocketSendQueue queue = sendQueue;
+        try
+        {
+            if (queue.offer(message, overflow == WebsocketSendQueue.Overflow.BLOCK))
+                return;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SocketIOException(e);
+        }
+
+        if (queue.isClosed())
+            throw new SocketIOClosedException();
+
+        if (overflow == WebsocketSendQueue.Overflow.DROP)
+        {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Session[" + getSession().getSessionId() + "]: send queue is full, message dropped");
+            return;
+        }
+
+        if (LOGGER.isLoggable(Level.WARNING))
+            LOGGER.warning("Session[" + getSession().getSessionId() + "]: send queue is full, disconnecting");
+
+        getSession().setDisconnectReason(DisconnectReason.ERROR);
+        getSession().setDisconnectMessage("Send queue overflow");
+        queue.close(false);
+        getSession().onShutdown(); // the close handshake could take long with the client not reading
+        throw new SocketIOException("Send queue overflow");
+    }
+
     private void disconnectEndpoint()
     {
         try
@@ -0,0 +1,209 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EngineIOBinaryPayloadDecoderTest
+{
+    private static final byte[] BLOB = new byte[300]; // 3 length digits
+
+    static
+    {
+        for (int i = 0; i < BLOB.length; i++)
+            BLOB[i] = (byte) i;
+    }
+
+    // text message with multibyte chars, binary message, ping, empty binary message, noop
+    private static final byte[] PAYLOAD = concat(
+            text(4, "2[\"a\",\"\u00e9\u20ac\"]"),
+            binary(4, BLOB),
+            text(2, "probe"),
+            binary(4, new byte[0]),
+            text(6, ""));
+
+    @Test
+    public void splitAtEveryByteBoundary() throws SocketIOProtocolException
+    {
+        for (int i = 0; i <= PAYLOAD.length; i++)
+        {
+            EngineIOBinaryPayloadDecoder decoder = new EngineIOBinaryPayloadDecoder();
+            List<EngineIOPacket> decoded = new ArrayList<>();
+            decoder.feed(PAYLOAD, 0, i);
+            drain(decoder, decoded);
+            decoder.feed(PAYLOAD, i, PAYLOAD.length - i);
+            drain(decoder, decoded);
+            decoder.finish();
+
+            assertPackets("split at " + i, decoded);
+        }
+    }
+
+    @Test
+    public void oneByteAtATime() throws SocketIOProtocolException
+    {
+        EngineIOBinaryPayloadDecoder decoder = new EngineIOBinaryPayloadDecoder();
+        List<EngineIOPacket> decoded = new ArrayList<>();
+        for (int i = 0; i < PAYLOAD.length; i++)
+        {
+            decoder.feed(PAYLOAD, i, 1);
+            drain(decoder, decoded);
+        }
+        decoder.finish();
+
+        assertPackets("", decoded);
+    }
+
+    @Test
+    public void decodeStream() throws IOException
+    {
+        assertPackets("", EngineIOProtocol.binaryDecodePayload(new ByteArrayInputStream(PAYLOAD)));
+    }
+
+    @Test
+    public void packetLargerThanInitialBuffer() throws IOException
+    {
+        byte[] large = new byte[100000];
+        Arrays.fill(large, (byte) 7);
+        List<EngineIOPacket> packets =
+                EngineIOProtocol.binaryDecodePayload(new ByteArrayInputStream(concat(binary(4, large), text(4, "x"))));
+
+        assertEquals(2, packets.size());
+        assertArrayEquals(large, bytes(packets.get(0)));
+        assertEquals("x", packets.get(1).getTextData());
+    }
+
+    @Test
+    public void invalidPayload()
+    {
+        byte[][] payloads = {
+                {2, 1, (byte) 0xff, 4},                 // unknown format
+                {0, (byte) 0xff, '4'},                  // no length
+                {1, 0, (byte) 0xff, 4},                 // zero length
+                {0, 2, (byte) 0xff, 'x', 'a'},          // not a packet type
+                {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 1},      // length out of range
+                {0, 3, (byte) 0xff, '4', 'a'},          // truncated data
+                {0, 2},                                 // truncated header
+                {1, 2, (byte) 0xff, 2, 1},              // binary ping
+        };
+        for (byte[] payload : payloads)
+        {
+            EngineIOBinaryPayloadDecoder decoder = new EngineIOBinaryPayloadDecoder();
+            try
+            {
+                decoder.feed(payload, 0, payload.length);
+                decoder.finish();
+                fail("Invalid payload accepted: " + Arrays.toString(payload));
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    private static void drain(EngineIOBinaryPayloadDecoder decoder, List<EngineIOPacket> decoded)
+    {
+        for (EngineIOPacket packet = decoder.poll(); packet != null; packet = decoder.poll())
+            decoded.add(packet);
+    }
+
+    private static void assertPackets(String message, List<EngineIOPacket> decoded)
+    {
+        assertEquals(message, 5, decoded.size());
+        try
+        {
+            assertEquals(message, EngineIOPacket.Type.MESSAGE, decoded.get(0).getType());
+            assertEquals(message, "2[\"a\",\"\u00e9\u20ac\"]", decoded.get(0).getTextData());
+            assertEquals(message, EngineIOPacket.Type.MESSAGE, decoded.get(1).getType());
+            assertArrayEquals(message, BLOB, bytes(decoded.get(1)));
+            assertEquals(message, EngineIOPacket.Type.PING, decoded.get(2).getType());
+            assertEquals(message, "probe", decoded.get(2).getTextData());
+            assertArrayEquals(message, new byte[0], bytes(decoded.get(3)));
+            assertEquals(message, EngineIOPacket.Type.NOOP, decoded.get(4).getType());
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] bytes(EngineIOPacket packet) throws IOException
+    {
+        InputStream is = packet.getBinaryData();
+        assertNotNull("binary packet expected", is);
+        return ByteStreams.toByteArray(is);
+    }
+
+    /*
+     * Engine.IO counts UTF-8 bytes of text packets
+     */
+    private static byte[] text(int type, String data)
+    {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        byte[] packet = new byte[bytes.length + 1];
+        packet[0] = (byte) ('0' + type);
+        System.arraycopy(bytes, 0, packet, 1, bytes.length);
+        return packet(0, packet);
+    }
+
+    private static byte[] binary(int type, byte[] data)
+    {
+        byte[] packet = new byte[data.length + 1];
+        packet[0] = (byte) type;
+        System.arraycopy(data, 0, packet, 1, data.length);
+        return packet(1, packet);
+    }
+
+    private static byte[] packet(int format, byte[] packet)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(format);
+        for (char digit : String.valueOf(packet.length).toCharArray())
+            out.write(digit - '0');
+        out.write(0xff);
+        out.write(packet, 0, packet.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... arrays)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] a : arrays)
+            out.write(a, 0, a.length);
+        return out.toByteArray();
+    }
+}
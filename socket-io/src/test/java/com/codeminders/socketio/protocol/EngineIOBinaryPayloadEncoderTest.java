@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EngineIOBinaryPayloadEncoderTest
+{
+    private static final String TEXT = "2[\"a\",\"\u00e9\u20ac\ud83d\ude00\"]";
+
+    @Test
+    public void roundTrip() throws IOException
+    {
+        byte[] large = new byte[5000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = (byte) i;
+
+        EngineIOBinaryPayloadEncoder encoder = new EngineIOBinaryPayloadEncoder();
+        encoder.add(EngineIOProtocol.createMessagePacket(TEXT));
+        encoder.add(EngineIOProtocol.createMessagePacket(ByteBuffer.wrap(large, 1, 300)));
+        encoder.add(EngineIOProtocol.createMessagePacket(new ByteArrayInputStream(large)));
+        encoder.add(EngineIOProtocol.createNoopPacket());
+
+        List<EngineIOPacket> packets = decode(encoder);
+
+        assertEquals(4, packets.size());
+        assertEquals(TEXT, packets.get(0).getTextData());
+        assertArrayEquals(Arrays.copyOfRange(large, 1, 301), bytes(packets.get(1)));
+        assertArrayEquals(large, bytes(packets.get(2)));
+        assertEquals(EngineIOPacket.Type.NOOP, packets.get(3).getType());
+    }
+
+    @Test
+    public void textLengthIsInUTF8Bytes() throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        EngineIOProtocol.binaryEncode(EngineIOProtocol.createMessagePacket(TEXT), os);
+
+        EngineIOBinaryPayloadEncoder encoder = new EngineIOBinaryPayloadEncoder();
+        encoder.add(EngineIOProtocol.createMessagePacket(TEXT));
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        encoder.writeTo(payload);
+
+        assertArrayEquals(os.toByteArray(), payload.toByteArray());
+        assertEquals(TEXT, EngineIOProtocol.binaryDecodePayload(
+                new ByteArrayInputStream(os.toByteArray())).get(0).getTextData());
+    }
+
+    @Test
+    public void resetStartsNewPayload() throws IOException
+    {
+        EngineIOBinaryPayloadEncoder encoder = new EngineIOBinaryPayloadEncoder();
+        encoder.add(EngineIOProtocol.createMessagePacket(new byte[300 * 1024]));
+        encoder.reset();
+        assertTrue(encoder.isEmpty());
+
+        encoder.add(EngineIOProtocol.createMessagePacket("x"));
+        List<EngineIOPacket> packets = decode(encoder);
+
+        assertEquals(1, packets.size());
+        assertEquals("x", packets.get(0).getTextData());
+    }
+
+    private static List<EngineIOPacket> decode(EngineIOBinaryPayloadEncoder encoder) throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.writeTo(os);
+        assertEquals(encoder.size(), os.size());
+        return EngineIOProtocol.binaryDecodePayload(new ByteArrayInputStream(os.toByteArray()));
+    }
+
+    private static byte[] bytes(EngineIOPacket packet) throws IOException
+    {
+        return ByteStreams.toByteArray(packet.getBinaryData());
+    }
+}
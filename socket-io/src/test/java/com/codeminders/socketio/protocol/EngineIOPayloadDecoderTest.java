@@ -0,0 +1,162 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EngineIOPayloadDecoderTest
+{
+    // message, ping, empty message, message with a surrogate pair, upgrade, noop
+    private static final String[] PACKETS = {"4hello", "2probe", "4", "4\u0436\ud83d\ude00!", "5", "6"};
+
+    @Test
+    public void splitAtEveryCharBoundary() throws SocketIOProtocolException
+    {
+        char[] payload = payload(PACKETS).toCharArray();
+        for (int i = 0; i <= payload.length; i++)
+        {
+            EngineIOPayloadDecoder decoder = new EngineIOPayloadDecoder();
+            List<String> decoded = new ArrayList<>();
+            decoder.feed(payload, 0, i);
+            drain(decoder, decoded);
+            decoder.feed(payload, i, payload.length - i);
+            drain(decoder, decoded);
+            decoder.finish();
+
+            assertPackets("split at " + i, decoded);
+        }
+    }
+
+    @Test
+    public void splitAtEveryPairOfCharBoundaries() throws SocketIOProtocolException
+    {
+        char[] payload = payload(PACKETS).toCharArray();
+        for (int i = 0; i <= payload.length; i++)
+        {
+            for (int j = i; j <= payload.length; j++)
+            {
+                EngineIOPayloadDecoder decoder = new EngineIOPayloadDecoder();
+                List<String> decoded = new ArrayList<>();
+                decoder.feed(payload, 0, i);
+                decoder.feed(payload, i, j - i);
+                decoder.feed(payload, j, payload.length - j);
+                drain(decoder, decoded);
+                decoder.finish();
+
+                assertPackets("split at " + i + " and " + j, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void packetLargerThanReaderBuffer() throws IOException
+    {
+        StringBuilder large = new StringBuilder("4");
+        for (int i = 0; i < 100000; i++)
+            large.append((char) ('a' + i % 26));
+
+        EngineIOPayloadDecoder decoder =
+                new EngineIOPayloadDecoder(new StringReader(payload("4a", large.toString(), "4b")), 16);
+
+        assertEquals("a", decoder.next().getTextData());
+        assertEquals(large.substring(1), decoder.next().getTextData());
+        assertEquals("b", decoder.next().getTextData());
+        assertNull(decoder.next());
+    }
+
+    @Test
+    public void decodePayload() throws SocketIOProtocolException
+    {
+        List<EngineIOPacket> packets = EngineIOProtocol.decodePayload(payload(PACKETS));
+
+        List<String> decoded = new ArrayList<>();
+        for (EngineIOPacket packet : packets)
+            decoded.add(toString(packet));
+        assertPackets("", decoded);
+        assertTrue(EngineIOProtocol.decodePayload("").isEmpty());
+    }
+
+    @Test
+    public void invalidPayload()
+    {
+        String[] payloads = {
+                ":4a",          // no length
+                "0:",           // zero length
+                "2x:4a",        // not a digit in the length
+                "2:x",          // not a packet type
+                "1234567890:4", // length out of range
+                "7:4hello",     // truncated data
+                "6:4hello1",    // truncated length of the next packet
+                "2:",           // missing type
+        };
+        for (String payload : payloads)
+        {
+            EngineIOPayloadDecoder decoder = new EngineIOPayloadDecoder();
+            try
+            {
+                decoder.feed(payload.toCharArray(), 0, payload.length());
+                decoder.finish();
+                fail("Invalid payload accepted: " + payload);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    private static String payload(String... packets)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String packet : packets)
+            sb.append(packet.length()).append(':').append(packet);
+        return sb.toString();
+    }
+
+    private static void drain(EngineIOPayloadDecoder decoder, List<String> decoded)
+    {
+        for (EngineIOPacket packet = decoder.poll(); packet != null; packet = decoder.poll())
+            decoded.add(toString(packet));
+    }
+
+    private static String toString(EngineIOPacket packet)
+    {
+        String data = packet.getTextData();
+        return packet.getType().value() + (data == null ? "" : data);
+    }
+
+    private static void assertPackets(String message, List<String> decoded)
+    {
+        assertEquals(message, PACKETS.length, decoded.size());
+        for (int i = 0; i < PACKETS.length; i++)
+            assertEquals(message, PACKETS[i], decoded.get(i));
+    }
+}
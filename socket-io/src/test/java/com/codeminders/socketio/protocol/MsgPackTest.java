@@ -0,0 +1,246 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MsgPackTest
+{
+    @Test
+    public void scalars() throws SocketIOProtocolException
+    {
+        assertNull(roundTrip(null));
+        assertEquals(true, roundTrip(true));
+        assertEquals(false, roundTrip(false));
+        assertEquals(1.5, roundTrip(1.5));
+        assertEquals(0.25, roundTrip(0.25f)); // float32 is read as double
+        assertEquals("x", roundTrip('x'));
+    }
+
+    @Test
+    public void integersAtFormatBoundaries() throws SocketIOProtocolException
+    {
+        long[] values = {0, 127, 128, 255, 256, 65535, 65536, Integer.MAX_VALUE, 0xffffffffL, 0x100000000L,
+                Long.MAX_VALUE, -1, -32, -33, -128, -129, -32768, -32769, Integer.MIN_VALUE,
+                Integer.MIN_VALUE - 1L, Long.MIN_VALUE};
+        for (long v : values)
+        {
+            Object expected = v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE ? (Object) (int) v : (Object) v;
+            assertEquals("value " + v, expected, roundTrip(v));
+        }
+
+        BigInteger max = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        assertEquals(max, roundTrip(max));
+    }
+
+    @Test
+    public void stringsOfEveryHeaderSize() throws SocketIOProtocolException
+    {
+        for (int len : new int[]{0, 31, 32, 255, 256, 65535, 65536})
+        {
+            String s = repeat('a', len);
+            assertEquals("length " + len, s, roundTrip(s));
+        }
+        String unicode = "\u043f\u0440\u0438\u0432\u0435\u0442 \u2603 \ud83d\ude00";
+        assertEquals(unicode, roundTrip(unicode));
+    }
+
+    @Test
+    public void collectionsOfEveryHeaderSize() throws SocketIOProtocolException
+    {
+        for (int size : new int[]{0, 15, 16, 65535, 65536})
+        {
+            List<Object> list = new ArrayList<>(size);
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++)
+            {
+                list.add(i);
+                map.put("k" + i, i);
+            }
+            assertEquals("list of " + size, list, roundTrip(list));
+            assertEquals("map of " + size, map, roundTrip(map));
+        }
+        assertEquals(Arrays.<Object>asList(1, "a", null), roundTrip(new Object[]{1, "a", null}));
+    }
+
+    @Test
+    public void dateIsFixExt8() throws SocketIOProtocolException
+    {
+        Date date = new Date(1234567890123L);
+        ByteBuffer encoded = MsgPack.encode(date, null);
+
+        assertEquals(10, encoded.remaining());
+        assertEquals((byte) 0xd7, encoded.get(0));
+        assertEquals(0, encoded.get(1));
+        assertEquals(date, MsgPack.decode(encoded));
+    }
+
+    @Test
+    public void undefinedIsFixExt1() throws SocketIOProtocolException
+    {
+        assertNull(decode(0xd4, 0x00, 0x00));
+
+        // {"a": undefined, "b": 1}
+        Map<Object, Object> expected = new LinkedHashMap<>();
+        expected.put("a", null);
+        expected.put("b", 1);
+        assertEquals(expected, decode(0x82, 0xa1, 'a', 0xd4, 0x00, 0x00, 0xa1, 'b', 0x01));
+    }
+
+    @Test
+    public void nestedBinary() throws SocketIOProtocolException, IOException
+    {
+        byte[] small = {1, 2, 3};
+        byte[] large = new byte[70000];
+        new Random(1).nextBytes(large);
+
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("buffer", ByteBuffer.wrap(large));
+        inner.put("stream", new ByteBufferInputStream(small));
+        List<Object> outer = Arrays.<Object>asList("file", small, inner, Collections.singletonList(new byte[0]));
+
+        List<?> decoded = (List<?>) roundTrip(outer);
+
+        assertEquals("file", decoded.get(0));
+        assertArrayEquals(small, bytes(decoded.get(1)));
+        Map<?, ?> decodedInner = (Map<?, ?>) decoded.get(2);
+        assertArrayEquals(large, bytes(decodedInner.get("buffer")));
+        assertArrayEquals(small, bytes(decodedInner.get("stream")));
+        assertArrayEquals(new byte[0], bytes(((List<?>) decoded.get(3)).get(0)));
+    }
+
+    @Test
+    public void placeholdersAreReplacedWithAttachments() throws SocketIOProtocolException, IOException
+    {
+        Map<String, Object> placeholder = new LinkedHashMap<>();
+        placeholder.put("_placeholder", true);
+        placeholder.put("num", 0);
+        List<InputStream> attachments = Collections.<InputStream>singletonList(new ByteBufferInputStream(new byte[]{7}));
+
+        List<?> decoded = (List<?>) MsgPack.decode(MsgPack.encode(Arrays.asList("a", placeholder), attachments));
+
+        assertArrayEquals(new byte[]{7}, bytes(decoded.get(1)));
+    }
+
+    @Test
+    public void invalidInput()
+    {
+        int[][] inputs = {
+                {},
+                {0xc1},                   // never used
+                {0x92, 0x01},             // array of 2 with one element
+                {0xa5, 'a', 'b'},         // truncated string
+                {0xc4, 0x05, 0x01},       // truncated binary
+                {0xd4, 0x01, 0x00},       // unknown extension type
+                {0x01, 0x02},             // data after the object
+                {0xdd, 0xff, 0xff, 0xff, 0xff}, // negative size
+        };
+        for (int[] input : inputs)
+        {
+            try
+            {
+                decode(input);
+                fail("Invalid input accepted: " + Arrays.toString(input));
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void binaryEventPacket() throws SocketIOProtocolException, IOException
+    {
+        byte[] data = {10, 20, 30};
+        Map<String, Object> arg = new LinkedHashMap<>();
+        arg.put("name", "a.bin");
+        arg.put("content", data);
+
+        MsgPackPacketParser parser = new MsgPackPacketParser();
+        List<EngineIOPacket> messages = parser.encode(
+                SocketIOProtocol.createEventPacket(5, "/files", "upload", new Object[]{arg, 42}));
+        assertEquals(1, messages.size());
+
+        EventPacket packet = (EventPacket) parser.createDecoder().decode(messages.get(0));
+
+        assertEquals(SocketIOPacket.Type.BINARY_EVENT, packet.getType());
+        assertEquals(5, packet.getId());
+        assertEquals("/files", packet.getNamespace());
+        assertEquals("upload", packet.getName());
+        assertEquals(2, packet.getArgs().length);
+        assertEquals("a.bin", ((Map<?, ?>) packet.getArgs()[0]).get("name"));
+        assertArrayEquals(data, bytes(((Map<?, ?>) packet.getArgs()[0]).get("content")));
+        assertEquals(42, packet.getArgs()[1]);
+    }
+
+    @Test
+    public void textMessagesAreRejected()
+    {
+        try
+        {
+            new MsgPackPacketParser().createDecoder().decode(EngineIOProtocol.createMessagePacket("2[\"a\"]"));
+            fail("Text message accepted");
+        }
+        catch (SocketIOProtocolException e)
+        {
+            // expected
+        }
+    }
+
+    private static Object roundTrip(Object o) throws SocketIOProtocolException
+    {
+        return MsgPack.decode(MsgPack.encode(o, null));
+    }
+
+    private static Object decode(int... bytes) throws SocketIOProtocolException
+    {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            data[i] = (byte) bytes[i];
+        return MsgPack.decode(ByteBuffer.wrap(data));
+    }
+
+    private static byte[] bytes(Object binary) throws IOException
+    {
+        assertTrue("binary object expected: " + binary, binary instanceof InputStream);
+        return ByteStreams.toByteArray((InputStream) binary);
+    }
+
+    private static String repeat(char c, int n)
+    {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
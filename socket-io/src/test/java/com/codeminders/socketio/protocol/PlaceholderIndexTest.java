@@ -0,0 +1,164 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PlaceholderIndexTest
+{
+    private static final String P0 = "{\"_placeholder\":true,\"num\":0}";
+    private static final String P1 = "{\"_placeholder\":true,\"num\":1}";
+    private static final String P2 = "{\"_placeholder\":true,\"num\":\"2\"}";
+
+    private final InputStream a0 = new ByteBufferInputStream(new byte[]{0});
+    private final InputStream a1 = new ByteBufferInputStream(new byte[]{1});
+    private final InputStream a2 = new ByteBufferInputStream(new byte[]{2});
+
+    @Test
+    public void placeholdersAtEveryLevel() throws SocketIOProtocolException
+    {
+        Object[] args = args("[" + P0 + ", [1, [" + P1 + "]], {\"file\": " + P2 + ", \"n\": 5}]");
+        PlaceholderIndex index = new PlaceholderIndex(args, 3);
+
+        index.insert(2, a2); // in any order
+        index.insert(0, a0);
+        index.insert(1, a1);
+
+        assertSame(a0, args[0]);
+        assertSame(a1, ((List<?>) ((List<?>) args[1]).get(1)).get(0));
+        assertSame(a2, ((Map<?, ?>) args[2]).get("file"));
+        assertEquals(5, ((Map<?, ?>) args[2]).get("n"));
+    }
+
+    @Test
+    public void attachmentReferencedTwice() throws SocketIOProtocolException
+    {
+        Object[] args = args("[" + P0 + ", {\"again\": " + P0 + "}]");
+        new PlaceholderIndex(args, 1).insert(0, a0);
+
+        assertSame(a0, args[0]);
+        assertSame(a0, ((Map<?, ?>) args[1]).get("again"));
+    }
+
+    @Test
+    public void mapsWhichAreNotPlaceholdersStay() throws SocketIOProtocolException
+    {
+        Object[] args = args("[{\"_placeholder\":false,\"num\":0}, {\"_placeholder\":true,\"num\":0,\"x\":1}, " + P0 + "]");
+        new PlaceholderIndex(args, 1).insert(0, a0);
+
+        assertTrue(args[0] instanceof Map);
+        assertTrue(args[1] instanceof Map);
+        assertSame(a0, args[2]);
+    }
+
+    @Test
+    public void attachmentWithoutPlaceholder() throws SocketIOProtocolException
+    {
+        Object[] args = args("[" + P0 + ", " + P1 + "]");
+        PlaceholderIndex index = new PlaceholderIndex(args, 2);
+
+        for (int num : new int[]{-1, 2, 5})
+        {
+            try
+            {
+                index.insert(num, a1);
+                fail("Attachment " + num + " accepted");
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+        assertTrue(args[1] instanceof Map);
+    }
+
+    @Test
+    public void declaredCountMustMatchPlaceholders() throws SocketIOProtocolException
+    {
+        String[] payloads = {
+                "[" + P0 + "]",                                     // fewer placeholders than attachments
+                "[" + P0 + ", " + P0 + "]",                         // the same one twice does not count
+                "[" + P0 + ", {\"_placeholder\":true,\"num\":5}]", // out of range
+                "[" + P1 + ", " + P2 + "]"                          // 0 is missing
+        };
+        for (String json : payloads)
+        {
+            try
+            {
+                new PlaceholderIndex(args(json), 2);
+                fail("Placeholders accepted: " + json);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void hugeAttachmentCountIsRejectedBeforeAllocation()
+    {
+        for (String data : new String[]{"52147483647-[\"a\"]", "62147483647-[" + P0 + "]", "51000000-[\"a\"," + P0 + "]"})
+        {
+            try
+            {
+                SocketIOProtocol.decode(data);
+                fail("Attachment count accepted: " + data);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void binaryEventIsCompleteWithLastAttachment() throws IOException
+    {
+        PacketDecoder decoder = new JSONPacketParser().createDecoder();
+
+        assertNull(decoder.decode(EngineIOProtocol.createMessagePacket("52-/files,[\"upload\"," + P1 + ",{\"a\":" + P0 + "}]")));
+        assertNull(decoder.decode(EngineIOProtocol.createMessagePacket(new byte[]{0})));
+        EventPacket packet = (EventPacket) decoder.decode(EngineIOProtocol.createMessagePacket(new byte[]{1}));
+
+        assertNotNull(packet);
+        assertEquals("/files", packet.getNamespace());
+        assertEquals("upload", packet.getName());
+        assertEquals(1, ((InputStream) packet.getArgs()[0]).read());
+        assertEquals(0, ((InputStream) ((Map<?, ?>) packet.getArgs()[1]).get("a")).read());
+        assertEquals(2, ((BinaryPacket) packet).getAttachments().size());
+    }
+
+    private static Object[] args(String json) throws SocketIOProtocolException
+    {
+        return ((List<?>) SocketIOProtocol.fromJSON(json)).toArray();
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.protocol;
+
+import com.codeminders.socketio.server.SocketIOProtocolException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SocketIOProtocolTest
+{
+    @Test
+    public void lazyEventKeepsRawArguments() throws SocketIOProtocolException
+    {
+        EventPacket packet = (EventPacket) SocketIOProtocol.decode("2/chat,7[\"msg\", {\"a\":[1,2]}, \"x\"]", true);
+
+        assertEquals("/chat", packet.getNamespace());
+        assertEquals(7, packet.getId());
+        assertEquals("msg", packet.getName());
+        assertEquals("[ {\"a\":[1,2]}, \"x\"]", packet.getArgsJSON());
+        assertEquals(2, packet.getArgs().length);
+        assertEquals("x", packet.getArgs()[1]);
+    }
+
+    @Test
+    public void lazyEventWithoutArguments() throws SocketIOProtocolException
+    {
+        EventPacket packet = (EventPacket) SocketIOProtocol.decode("2[\"ping\"]", true);
+
+        assertEquals("[]", packet.getArgsJSON());
+        assertEquals(0, packet.getArgs().length);
+    }
+
+    @Test
+    public void lazyEventRejectsInvalidArguments()
+    {
+        for (String data : Arrays.asList(
+                "2[\"msg\",{\"a\":}]",
+                "2[\"msg\",1,]",
+                "2[\"msg\",[1,2]",
+                "2[\"msg\",\"unterminated]",
+                "2[\"msg\",nope]",
+                "2[\"msg\",1]{\"extra\":1}",
+                "2[\"msg\",1] [2]"))
+        {
+            try
+            {
+                SocketIOProtocol.decode(data, true);
+                fail("Invalid arguments accepted: " + data);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void lazyEventAllowsTrailingWhitespace() throws SocketIOProtocolException
+    {
+        EventPacket packet = (EventPacket) SocketIOProtocol.decode("2[\"msg\",1]  ", true);
+
+        assertEquals(Collections.<Object>singletonList(1), Arrays.asList(packet.getArgs()));
+    }
+
+    @Test
+    public void rawArgumentsMustBeArray()
+    {
+        EventPacket packet = SocketIOProtocol.createJSONEventPacket("/", "msg", "{\"a\":1}");
+        try
+        {
+            packet.getArgs();
+            fail("Object accepted as arguments");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            SocketIOProtocol.toJSON("msg", null);
+            fail("null accepted as arguments");
+        }
+        catch (SocketIOProtocolException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void rawArgumentsAreSplicedAfterEventName() throws SocketIOProtocolException
+    {
+        assertEquals("[\"msg\",1,2]", SocketIOProtocol.toJSON("msg", " [1,2] "));
+        assertEquals("[\"msg\"]", SocketIOProtocol.toJSON("msg", "[ ]"));
+    }
+
+    @Test
+    public void attachmentCountIsChecked() throws SocketIOProtocolException
+    {
+        for (String data : Arrays.asList(
+                "52147483648-[\"msg\"]",
+                "599999999999-[\"msg\"]",
+                "51[\"msg\",{\"_placeholder\":true,\"num\":0}]",
+                "51x[\"msg\",{\"_placeholder\":true,\"num\":0}]",
+                "51",
+                "5-[\"msg\"]",
+                "50-[\"msg\"]"))
+        {
+            try
+            {
+                SocketIOProtocol.decode(data, false);
+                fail("Invalid attachment count accepted: " + data);
+            }
+            catch (SocketIOProtocolException e)
+            {
+                // expected
+            }
+        }
+
+        BinaryPacket packet = (BinaryPacket) SocketIOProtocol.decode(
+                "51-/chat,7[\"msg\",{\"_placeholder\":true,\"num\":0}]", false);
+        assertFalse(packet.isComplete());
+        assertEquals("/chat", ((SocketIOPacket) packet).getNamespace());
+        assertEquals(7, ((SocketIOPacket) packet).getId());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ACKRegistryTest
+{
+    @Test
+    public void addAndRemove()
+    {
+        ACKRegistry acks = new ACKRegistry(10);
+        ACKRegistry.Pending a = pending();
+        ACKRegistry.Pending b = pending();
+
+        int ida = acks.add(a);
+        int idb = acks.add(b);
+        assertNotEquals(ida, idb);
+        assertEquals(2, acks.size());
+
+        assertNull(acks.remove(ida, b)); // someone else's entry stays
+        assertSame(a, acks.remove(ida, a));
+        assertNull(acks.remove(ida, null));
+        assertSame(b, acks.remove(idb, null));
+        assertEquals(0, acks.size());
+    }
+
+    @Test
+    public void sizeIsCapped()
+    {
+        ACKRegistry acks = new ACKRegistry(2);
+        assertTrue(acks.add(pending()) >= 0);
+        assertTrue(acks.put(100, pending()));
+        assertEquals(-1, acks.add(pending()));
+        assertFalse(acks.put(101, pending()));
+
+        ACKRegistry.Pending replacement = pending();
+        assertTrue(acks.put(100, replacement)); // replacing does not grow the registry
+        assertSame(replacement, acks.remove(100, null));
+        assertTrue(acks.add(pending()) >= 0);
+    }
+
+    @Test
+    public void idsWrapAroundAndSkipTakenOnes()
+    {
+        ACKRegistry acks = new ACKRegistry(10, Integer.MAX_VALUE);
+        ACKRegistry.Pending taken = pending();
+        acks.put(0, taken);
+
+        assertEquals(Integer.MAX_VALUE, acks.add(pending()));
+        assertEquals(1, acks.add(pending())); // never negative, 0 is still pending
+        assertSame(taken, acks.remove(0, null));
+        assertEquals(2, acks.nextId());
+    }
+
+    @Test
+    public void clearReturnsAllEntries()
+    {
+        ACKRegistry acks = new ACKRegistry(1000);
+        Set<ACKRegistry.Pending> added = new HashSet<>();
+        for (int i = 0; i < 100; i++)
+        {
+            ACKRegistry.Pending pending = pending();
+            acks.add(pending);
+            added.add(pending);
+        }
+
+        assertEquals(added, new HashSet<>(acks.clear()));
+        assertEquals(0, acks.size());
+        assertTrue(acks.clear().isEmpty());
+        assertTrue(acks.add(pending()) >= 0);
+    }
+
+    /*
+     * Dense tables produce long probe chains which wrap over the end of the table,
+     * deleting from the middle of them has to shift the rest back
+     */
+    @Test
+    public void probeChainsSurviveDeletes()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++)
+        {
+            ACKRegistry acks = new ACKRegistry(Integer.MAX_VALUE);
+            Map<Integer, ACKRegistry.Pending> expected = new HashMap<>();
+            int n = 1 + random.nextInt(200);
+            for (int i = 0; i < n; i++)
+            {
+                int id = random.nextInt(4 * n);
+                ACKRegistry.Pending pending = pending();
+                acks.put(id, pending);
+                expected.put(id, pending);
+            }
+
+            List<Integer> ids = new ArrayList<>(expected.keySet());
+            Collections.shuffle(ids, random);
+            for (int k = 0; k < ids.size(); k++)
+            {
+                int id = ids.get(k);
+                assertSame(expected.remove(id), acks.remove(id, null));
+                assertNull(acks.remove(id, null));
+                assertEquals(expected.size(), acks.size());
+
+                for (int j = k + 1; j < ids.size(); j += 7) // the rest is still reachable
+                {
+                    ACKRegistry.Pending pending = expected.get(ids.get(j));
+                    assertSame(pending, acks.remove(ids.get(j), pending));
+                    acks.put(ids.get(j), pending);
+                }
+            }
+        }
+    }
+
+    private static ACKRegistry.Pending pending()
+    {
+        return new ACKRegistry.Pending(null);
+    }
+}
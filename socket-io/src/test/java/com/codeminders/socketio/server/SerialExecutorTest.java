@@ -0,0 +1,249 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the mailbox with a pool which runs its tasks when the test says so
+ */
+public class SerialExecutorTest
+{
+    private final ManualPool     pool    = new ManualPool();
+    private final SerialExecutor mailbox = new SerialExecutor(pool);
+    private final List<Integer>  log     = new ArrayList<>();
+
+    @Test
+    public void tasksRunInOrderOnOneThread()
+    {
+        for (int i = 0; i < 10; i++)
+            mailbox.execute(record(i));
+
+        assertEquals(1, pool.size()); // the mailbox is scheduled once
+        assertTrue(log.isEmpty());
+
+        pool.runAll();
+        assertEquals(range(0, 10), log);
+    }
+
+    @Test
+    public void busyMailboxYieldsAfterBatch()
+    {
+        for (int i = 0; i < SerialExecutor.BATCH + 10; i++)
+            mailbox.execute(record(i));
+
+        SerialExecutor other = new SerialExecutor(pool);
+        other.execute(record(-1));
+
+        pool.runNext();
+        assertEquals(range(0, SerialExecutor.BATCH), log);
+        assertEquals(2, pool.size()); // the rest waits behind the other mailbox
+
+        pool.runNext();
+        assertEquals(-1, (int) log.get(log.size() - 1));
+
+        pool.runNext();
+        assertEquals(SerialExecutor.BATCH + 11, log.size());
+        assertEquals(range(SerialExecutor.BATCH, SerialExecutor.BATCH + 10), log.subList(SerialExecutor.BATCH + 1, log.size()));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void taskAddedByTaskRunsAfterIt()
+    {
+        mailbox.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mailbox.execute(record(2));
+                log.add(1);
+            }
+        });
+        mailbox.execute(record(3)); // submitted before 2
+
+        pool.runAll();
+        assertEquals(Arrays.asList(1, 3, 2), log);
+    }
+
+    @Test
+    public void failedTaskDoesNotStopOthers()
+    {
+        mailbox.execute(record(1));
+        mailbox.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException("expected by the test");
+            }
+        });
+        mailbox.execute(record(2));
+
+        pool.runAll();
+        assertEquals(Arrays.asList(1, 2), log);
+    }
+
+    @Test
+    public void rejectedMailboxCanBeScheduledAgain()
+    {
+        pool.reject = true;
+        try
+        {
+            mailbox.execute(record(1));
+            fail("Rejected execution is not reported");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // expected
+        }
+
+        pool.reject = false;
+        mailbox.execute(record(2)); // the rejected task is still queued, it runs first
+        pool.runAll();
+        assertEquals(Arrays.asList(1, 2), log);
+    }
+
+    @Test
+    public void neverRunsConcurrently() throws InterruptedException
+    {
+        final int producers = 4;
+        final int tasks = 10000;
+        ExecutorService threads = Executors.newFixedThreadPool(producers + 4);
+        try
+        {
+            final SerialExecutor mailbox = new SerialExecutor(threads);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger overlaps = new AtomicInteger();
+            final int[] last = new int[producers];
+            final AtomicInteger outOfOrder = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(producers * tasks);
+
+            for (int p = 0; p < producers; p++)
+            {
+                final int producer = p;
+                threads.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for (int i = 1; i <= tasks; i++)
+                        {
+                            final int seq = i;
+                            mailbox.execute(new Runnable()
+                            {
+                                @Override
+                                public void run()
+                                {
+                                    if (running.incrementAndGet() != 1)
+                                        overlaps.incrementAndGet();
+                                    if (last[producer] != seq - 1) // plain field, the mailbox orders the tasks
+                                        outOfOrder.incrementAndGet();
+                                    last[producer] = seq;
+                                    running.decrementAndGet();
+                                    done.countDown();
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            assertEquals(0, outOfOrder.get());
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+    }
+
+    private Runnable record(final int i)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                log.add(i);
+            }
+        };
+    }
+
+    private static List<Integer> range(int from, int to)
+    {
+        List<Integer> list = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            list.add(i);
+        return list;
+    }
+
+    /**
+     * Keeps submitted tasks until the test runs them
+     */
+    static final class ManualPool implements Executor
+    {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        boolean reject;
+
+        @Override
+        public void execute(Runnable task)
+        {
+            if (reject)
+                throw new RejectedExecutionException();
+            tasks.add(task);
+        }
+
+        int size()
+        {
+            return tasks.size();
+        }
+
+        void runNext()
+        {
+            tasks.remove().run();
+        }
+
+        void runAll()
+        {
+            while (!tasks.isEmpty())
+                runNext();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import com.codeminders.socketio.common.ConnectionState;
+import com.codeminders.socketio.common.DisconnectReason;
+import com.codeminders.socketio.protocol.EngineIOPacket;
+import com.codeminders.socketio.protocol.EngineIOProtocol;
+import com.codeminders.socketio.protocol.SocketIOPacket;
+import com.codeminders.socketio.protocol.SocketIOProtocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Session dispatch on a pool which runs the mailboxes when the test says so
+ */
+public class SessionTest
+{
+    private final SocketIOManager               manager = SocketIOManager.getInstance();
+    private final SerialExecutorTest.ManualPool pool    = new SerialExecutorTest.ManualPool();
+    private final List<String>                  log     = new ArrayList<>();
+
+    @Before
+    public void init()
+    {
+        manager.setDispatchExecutor(pool);
+        manager.createNamespace(SocketIOProtocol.DEFAULT_NAMESPACE).on(new ConnectionListener()
+        {
+            @Override
+            public void onConnect(Socket socket)
+            {
+                final String id = socket.getSession().getSessionId();
+                log.add(id + " connect");
+                socket.on("e", new EventListener()
+                {
+                    @Override
+                    public Object onEvent(String name, Object[] args, boolean ackRequested)
+                    {
+                        log.add(id + " " + args[0]);
+                        return null;
+                    }
+                });
+                socket.on(new DisconnectListener()
+                {
+                    @Override
+                    public void onDisconnect(Socket socket, DisconnectReason reason, String errorMessage)
+                    {
+                        log.add(id + " disconnect " + reason);
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void shutdown()
+    {
+        manager.setDispatchExecutor(null);
+    }
+
+    @Test
+    public void connectDoesNotWaitForMailbox()
+    {
+        Session session = manager.createSession();
+        Connection connection = new Connection(session);
+
+        assertTrue(session.needsHandshake());
+        session.onConnect(connection.proxy);
+        session.onConnect(connection.proxy); // handshake sent twice, connect is queued once
+
+        assertFalse(session.needsHandshake());
+        assertEquals(ConnectionState.CONNECTING, session.getConnectionState());
+        assertTrue(connection.sent.isEmpty());
+        assertEquals(1, pool.size());
+
+        pool.runAll();
+        assertEquals(ConnectionState.CONNECTED, session.getConnectionState());
+        assertEquals(Arrays.asList(SocketIOPacket.Type.CONNECT), connection.sent);
+        assertEquals(Arrays.asList(session.getSessionId() + " connect"), log);
+    }
+
+    @Test
+    public void packetsAndDisconnectRunAfterConnectInOrder()
+    {
+        Session session = manager.createSession();
+        Connection connection = new Connection(session);
+        String id = session.getSessionId();
+
+        session.onConnect(connection.proxy);
+        session.onPacket(event(1), connection.proxy); // arrived before the connect ran
+        session.onPacket(event(2), connection.proxy);
+        session.onShutdown();
+        assertTrue(log.isEmpty());
+
+        pool.runAll();
+        assertEquals(Arrays.asList(id + " connect", id + " 1", id + " 2", id + " disconnect " + DisconnectReason.ERROR), log);
+        assertEquals(ConnectionState.CLOSED, session.getConnectionState());
+        assertNull(manager.getSession(id));
+    }
+
+    @Test
+    public void packetsReceivedBeforeShutdownAreDelivered()
+    {
+        Session session = manager.createSession();
+        Connection connection = new Connection(session);
+        String id = session.getSessionId();
+
+        session.onConnect(connection.proxy);
+        session.onPacket(EngineIOProtocol.createClosePacket(), connection.proxy);
+        session.onPacket(event(1), connection.proxy); // ahead of the shutdown triggered by the close
+        pool.runAll();
+
+        session.onPacket(event(2), connection.proxy);
+        pool.runAll();
+
+        assertEquals(Arrays.asList(id + " connect", id + " 1", id + " disconnect " + DisconnectReason.CLOSED_REMOTELY), log);
+    }
+
+    @Test
+    public void busySessionDoesNotHoldOthersBack()
+    {
+        Session busy = manager.createSession();
+        Session other = manager.createSession();
+        Connection busyConnection = new Connection(busy);
+        Connection otherConnection = new Connection(other);
+        busy.onConnect(busyConnection.proxy);
+        other.onConnect(otherConnection.proxy);
+        pool.runAll();
+        log.clear();
+
+        for (int i = 0; i < SerialExecutor.BATCH + 1; i++)
+            busy.onPacket(event(i), busyConnection.proxy);
+        other.onPacket(event(0), otherConnection.proxy);
+
+        pool.runAll();
+        assertEquals(SerialExecutor.BATCH + 2, log.size());
+        assertEquals(other.getSessionId() + " 0", log.get(SerialExecutor.BATCH));
+        assertEquals(busy.getSessionId() + " " + SerialExecutor.BATCH, log.get(SerialExecutor.BATCH + 1));
+    }
+
+    private static EngineIOPacket event(int arg)
+    {
+        return EngineIOProtocol.createMessagePacket("2[\"e\"," + arg + "]");
+    }
+
+    /**
+     * Transport connection recording SIO packets sent to it. Aborting it shuts the session down, like transports do
+     */
+    private static final class Connection implements InvocationHandler
+    {
+        final List<SocketIOPacket.Type> sent = new ArrayList<>();
+        final Session                   session;
+        final TransportConnection       proxy;
+
+        Connection(Session session)
+        {
+            this.session = session;
+            this.proxy = (TransportConnection) Proxy.newProxyInstance(TransportConnection.class.getClassLoader(),
+                    new Class<?>[]{TransportConnection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+                case "send":
+                    if (args[0] instanceof SocketIOPacket)
+                        sent.add(((SocketIOPacket) args[0]).getType());
+                    return null;
+                case "abort":
+                    session.onShutdown();
+                    return null;
+                case "getSession":
+                    return session;
+                case "isWritable":
+                    return true;
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the wheel by hand with a fake clock
+ */
+public class TimeoutWheelTest
+{
+    private static final long TICK     = TimeoutWheel.TICK;
+    private static final long ROTATION = 512 * TICK;
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1)
+    {
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
+        {
+            return null; // ticks are run by the test
+        }
+    };
+
+    private long time = 1000000;
+
+    private final TimeoutWheel wheel = new TimeoutWheel(executor)
+    {
+        @Override
+        long now()
+        {
+            return time;
+        }
+    };
+
+    private final List<Long> fired = new ArrayList<>();
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void firesWithinOneTickAfterPeriod()
+    {
+        long start = time;
+        wheel.schedule(task(), 1200);
+
+        advance(5 * TICK, 100);
+        assertEquals(1, fired.size());
+        assertTrue(fired.get(0) >= start + 1200);
+        assertTrue(fired.get(0) <= start + 1200 + TICK);
+    }
+
+    @Test
+    public void periodLongerThanRotation()
+    {
+        long start = time;
+        long period = 2 * ROTATION + 250;
+        wheel.schedule(task(), period);
+
+        // the bucket comes round twice before the deadline
+        advance(period - TICK, TICK);
+        assertTrue(fired.isEmpty());
+
+        advance(2 * TICK, TICK);
+        assertEquals(1, fired.size());
+        assertTrue(fired.get(0) >= start + period);
+        assertTrue(fired.get(0) <= start + period + TICK);
+    }
+
+    @Test
+    public void touchMovesTimeoutToAnotherBucket()
+    {
+        TimeoutWheel.Timeout timeout = wheel.schedule(task(), 2000);
+
+        // keep it alive for longer than a rotation, so the entry is re-bucketed many times
+        for (long t = 0; t < ROTATION + 10 * TICK; t += 700)
+        {
+            timeout.touch();
+            advance(700, 100);
+        }
+        assertTrue(fired.isEmpty());
+
+        long lastActivity = time;
+        timeout.touch();
+        advance(2000 + 2 * TICK, 100);
+        assertEquals(1, fired.size());
+        assertTrue(fired.get(0) >= lastActivity + 2000);
+        assertTrue(fired.get(0) <= lastActivity + 2000 + TICK);
+    }
+
+    @Test
+    public void cancelledTimeoutNeverFires()
+    {
+        wheel.schedule(task(), 1000).cancel();
+        advance(ROTATION + 3000, TICK);
+        assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    public void missedTicksAreCaughtUp()
+    {
+        wheel.schedule(task(), 1000);
+        wheel.schedule(task(), ROTATION + 1000);
+
+        time += 3 * ROTATION; // the tick thread was stalled for several rotations
+        wheel.run();
+        assertEquals(2, fired.size());
+
+        wheel.run();
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    public void taskCanScheduleAnotherTimeout()
+    {
+        wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                wheel.schedule(task(), 1000);
+            }
+        }, 1000);
+
+        advance(1000 + TICK, TICK);
+        assertTrue(fired.isEmpty());
+        advance(1000 + TICK, TICK);
+        assertEquals(1, fired.size());
+    }
+
+    /*
+     * Moves the clock forward in steps, running the wheel after each one
+     */
+    private void advance(long duration, long step)
+    {
+        for (long t = 0; t < duration; t += step)
+        {
+            time += step;
+            wheel.run();
+        }
+    }
+
+    private Runnable task()
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fired.add(time);
+            }
+        };
+    }
+}
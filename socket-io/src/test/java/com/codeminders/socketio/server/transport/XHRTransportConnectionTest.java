@@ -0,0 +1,265 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server.transport;
+
+import com.codeminders.socketio.protocol.EngineIOPacket;
+import com.codeminders.socketio.protocol.EngineIOProtocol;
+import com.codeminders.socketio.server.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Polling GETs against servlet API stand-ins, async requests are parked and completed by hand
+ */
+public class XHRTransportConnectionTest
+{
+    private XHRTransportConnection connection;
+
+    @Before
+    public void init()
+    {
+        connection = new XHRTransportConnection(new XHRPollingTransport());
+        connection.init(new TestConfig());
+    }
+
+    @Test
+    public void overlappingPolls() throws IOException
+    {
+        Poll first = poll();
+        assertFalse(first.completed);
+
+        // the client gave up on the first poll and sent another one
+        Poll second = poll();
+        assertTrue(first.completed);
+        assertEquals(EngineIOPacket.Type.NOOP, single(first.packets()).getType());
+        assertFalse(second.completed);
+
+        connection.send(EngineIOProtocol.createMessagePacket("hello"));
+        assertTrue(second.completed);
+        EngineIOPacket packet = single(second.packets());
+        assertEquals(EngineIOPacket.Type.MESSAGE, packet.getType());
+        assertEquals("hello", packet.getTextData());
+    }
+
+    @Test
+    public void queuedPacketsGoToNewPoll() throws IOException
+    {
+        connection.send(EngineIOProtocol.createMessagePacket("queued"));
+
+        Poll poll = poll();
+        assertTrue(poll.completed);
+        assertEquals("queued", single(poll.packets()).getTextData());
+
+        Poll next = poll();
+        assertFalse(next.completed);
+    }
+
+    private Poll poll() throws IOException
+    {
+        Poll poll = new Poll();
+        connection.handle(poll.request, poll.response);
+        return poll;
+    }
+
+    private static EngineIOPacket single(List<EngineIOPacket> packets)
+    {
+        assertEquals(1, packets.size());
+        return packets.get(0);
+    }
+
+    /**
+     * Polling GET, completed when the response is written
+     */
+    private static final class Poll
+    {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean completed;
+        int     contentLength = -1;
+
+        final HttpServletResponse response = fake(HttpServletResponse.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                switch (method.getName())
+                {
+                    case "setContentLength":
+                        contentLength = (Integer) args[0];
+                        return null;
+                    case "getOutputStream":
+                        return new ServletOutputStream()
+                        {
+                            @Override
+                            public void write(int b)
+                            {
+                                body.write(b);
+                            }
+
+                            @Override
+                            public boolean isReady()
+                            {
+                                return true;
+                            }
+
+                            @Override
+                            public void setWriteListener(WriteListener listener)
+                            {
+                            }
+                        };
+                    case "flushBuffer":
+                        completed = true; // the response is written
+                        return null;
+                    default:
+                        return null;
+                }
+            }
+        });
+
+        final AsyncContext ctx = fake(AsyncContext.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                switch (method.getName())
+                {
+                    case "getResponse":
+                        return response;
+                    case "start":
+                        ((Runnable) args[0]).run();
+                        return null;
+                    default:
+                        return null;
+                }
+            }
+        });
+
+        final HttpServletRequest request = fake(HttpServletRequest.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                switch (method.getName())
+                {
+                    case "getMethod":
+                        return "GET";
+                    case "isAsyncSupported":
+                        return true;
+                    case "startAsync":
+                        return ctx;
+                    default:
+                        return null;
+                }
+            }
+        });
+
+        List<EngineIOPacket> packets() throws IOException
+        {
+            byte[] bytes = body.toByteArray();
+            assertEquals(bytes.length, contentLength); // an empty payload is a parse error for the client
+            return EngineIOProtocol.binaryDecodePayload(new ByteArrayInputStream(bytes));
+        }
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static final class TestConfig implements Config
+    {
+        @Override
+        public long getPingInterval(long def)
+        {
+            return def;
+        }
+
+        @Override
+        public long getTimeout(long def)
+        {
+            return def;
+        }
+
+        @Override
+        public int getBufferSize()
+        {
+            return 8192;
+        }
+
+        @Override
+        public int getMaxIdle()
+        {
+            return 0;
+        }
+
+        @Override
+        public String getString(String key)
+        {
+            return null;
+        }
+
+        @Override
+        public String getString(String key, String def)
+        {
+            return def;
+        }
+
+        @Override
+        public int getInt(String key, int def)
+        {
+            return def;
+        }
+
+        @Override
+        public long getLong(String key, long def)
+        {
+            return def;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean def)
+        {
+            return def;
+        }
+
+        @Override
+        public String getNamespace()
+        {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Alexander Sova (bird@codeminders.com)
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.codeminders.socketio.server.transport.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Send queue against a websocket stand-in which completes writes inline unless they are held
+ */
+public class WebsocketSendQueueTest
+{
+    private final List<String>   sent        = new ArrayList<>();
+    private final List<Integer>  depths      = new ArrayList<>(); // stack depth of each write
+    private final List<Runnable> streamTasks = new ArrayList<>(); // stream writes waiting for a thread
+    private SendHandler          pending; // completion of the held write
+    private boolean              hold;
+    private boolean              endpointClosed;
+
+    private WebsocketSendQueue queue;
+
+    @Before
+    public void init()
+    {
+        final RemoteEndpoint.Async remote = fake(RemoteEndpoint.Async.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("sendText"))
+                {
+                    sent.add((String) args[0]);
+                    depths.add(Thread.currentThread().getStackTrace().length);
+                    SendHandler handler = (SendHandler) args[1];
+                    if (hold)
+                        pending = handler;
+                    else
+                        handler.onResult(new SendResult());
+                }
+                return null;
+            }
+        });
+
+        // blocking writes of streamed messages
+        final RemoteEndpoint.Basic basic = fake(RemoteEndpoint.Basic.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("sendBinary") && (Boolean) args[1])
+                    sent.add("stream of " + ((ByteBuffer) args[0]).remaining());
+                return null;
+            }
+        });
+
+        Session session = fake(Session.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                switch (method.getName())
+                {
+                    case "getAsyncRemote":
+                        return remote;
+                    case "getBasicRemote":
+                        return basic;
+                    case "close":
+                        endpointClosed = true;
+                        return null;
+                    default:
+                        return null;
+                }
+            }
+        });
+
+        queue = new WebsocketSendQueue(session, 10000, 1000, 1024, new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                streamTasks.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void inlineCompletionsDoNotRecurse() throws InterruptedException
+    {
+        hold = true;
+        assertTrue(queue.offer("0", false));
+        for (int i = 1; i <= 5000; i++)
+            assertTrue(queue.offer(Integer.toString(i), false));
+        assertEquals(1, sent.size());
+        assertEquals(5000, queue.size());
+
+        // the rest is written from the completion of the first message
+        hold = false;
+        complete();
+
+        assertEquals(5001, sent.size());
+        for (int i = 0; i < sent.size(); i++)
+            assertEquals(Integer.toString(i), sent.get(i));
+        assertEquals(0, queue.size());
+        for (int i = 2; i < depths.size(); i++)
+            assertEquals(depths.get(1), depths.get(i));
+    }
+
+    @Test
+    public void heldWritesGoOutInOrder() throws InterruptedException
+    {
+        hold = true;
+        queue.offer("a", false);
+        queue.offer("b", false);
+        queue.offer("c", false);
+        assertEquals(1, sent.size());
+
+        complete();
+        complete();
+        assertEquals(3, sent.size());
+        assertEquals("c", sent.get(2));
+
+        // nothing is in flight, the next message is written right away
+        complete();
+        queue.offer("d", false);
+        assertEquals(4, sent.size());
+        assertEquals("d", sent.get(3));
+    }
+
+    @Test
+    public void drainingCloseWritesQueuedMessagesFirst() throws InterruptedException
+    {
+        hold = true;
+        queue.offer("a", false);
+        queue.offer("b", false);
+        queue.close(true);
+        assertFalse(endpointClosed);
+        assertFalse(queue.offer("c", false));
+
+        hold = false;
+        complete();
+        assertEquals(2, sent.size());
+        assertTrue(endpointClosed);
+    }
+
+    @Test
+    public void streamsAreWrittenOnStreamPool() throws InterruptedException
+    {
+        queue.offer(new WebsocketSendQueue.Stream(4, new ByteArrayInputStream(new byte[]{1, 2, 3})), false);
+        queue.offer("after", false);
+        assertTrue(sent.isEmpty());
+        assertEquals(1, streamTasks.size());
+
+        // the text message waits for the stream
+        streamTasks.remove(0).run();
+        assertEquals(2, sent.size());
+        assertEquals("stream of 4", sent.get(0));
+        assertEquals("after", sent.get(1));
+    }
+
+    private void complete()
+    {
+        SendHandler handler = pending;
+        pending = null;
+        handler.onResult(new SendResult());
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}